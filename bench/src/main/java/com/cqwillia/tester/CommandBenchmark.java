@@ -0,0 +1,60 @@
+package com.cqwillia.tester;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/* Measures turning a command template and an input directory into trials: compiling the template,
+   scanning the input and output directories for keys, pairing the files and generating each
+   trial's arguments. Every input already has its output file, so the benchmark creates no files
+   while it runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark
+{
+    @Param({"10", "1000", "100000"})
+    public int fileCount;
+
+    @Param({"valgrind --tool=memcheck --leak-check=yes ./scripts/bin/split_test <input> <output>"})
+    public String template;
+
+    private Path root;
+    private File inDir;
+    private File outDir;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        root = Corpus.create("command");
+        Corpus.files(root.resolve("input"), "input", fileCount);
+        Corpus.files(root.resolve("output"), "output", fileCount);
+        inDir = root.resolve("input").toFile();
+        outDir = root.resolve("output").toFile();
+        console = Corpus.nullConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Corpus.delete(root);
+    }
+
+    @Benchmark
+    public Map<Integer, Trial> parseCommand() throws Exception
+    {
+        Map<Integer, Trial> trials = new TreeMap<>();
+        TesterLogic.parseCommand(CommandTemplate.compile(template), inDir, outDir, outDir, console, trials);
+        return trials;
+    }
+}
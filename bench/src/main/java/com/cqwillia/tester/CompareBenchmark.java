@@ -0,0 +1,57 @@
+package com.cqwillia.tester;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/* Measures comparing one output file against its reference, from a kilobyte to a gigabyte, with
+   and without the memory-mapped fast path. When differ is set, the files differ only in their
+   last line, which is the worst case for both paths. The 1GB case needs 2GB of free space in the
+   temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareBenchmark
+{
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean differ;
+
+    @Param({"true", "false"})
+    public boolean mapped;
+
+    private Path root;
+    private File out;
+    private File ref;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        root = Corpus.create("compare");
+        long bytes = Corpus.size(size);
+        Corpus.text(root.resolve("output_1.txt"), bytes, differ);
+        Corpus.text(root.resolve("ref_1.txt"), bytes, false);
+        out = root.resolve("output_1.txt").toFile();
+        ref = root.resolve("ref_1.txt").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Corpus.delete(root);
+    }
+
+    @Benchmark
+    public Comparison compare() throws Exception
+    {
+        return ResultComparator.compare(out, ref, mapped);
+    }
+}
@@ -0,0 +1,59 @@
+package com.cqwillia.tester;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Measures comparing a whole output directory against its reference directory: looking both up,
+   pairing the files by key and comparing every pair of small files, as after a run of a large suite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareResultsBenchmark
+{
+    @Param({"10", "1000", "100000"})
+    public int fileCount;
+
+    @Param({"1KB"})
+    public String size;
+
+    private Path root;
+    private File outDir;
+    private File refDir;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        root = Corpus.create("results");
+        long bytes = Corpus.size(size);
+        for(int i = 1; i <= fileCount; i++)
+        {
+            Corpus.text(root.resolve("output").resolve("output_" + i + ".txt"), bytes, false);
+            Corpus.text(root.resolve("ref").resolve("ref_" + i + ".txt"), bytes, false);
+        }
+        outDir = root.resolve("output").toFile();
+        refDir = root.resolve("ref").toFile();
+        console = Corpus.nullConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Corpus.delete(root);
+    }
+
+    @Benchmark
+    public Map<Integer, Comparison> compareResults()
+    {
+        return TesterLogic.compareResults(outDir, refDir, true, console);
+    }
+}
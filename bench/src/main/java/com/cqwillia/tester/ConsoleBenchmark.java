@@ -0,0 +1,76 @@
+package com.cqwillia.tester;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.JTextArea;
+import java.io.*;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/* Measures printing a trial's log line through the console that Tester.init creates, which queues
+   the line for the console window and for the session log's writer thread, against a plain
+   buffered PrintStream writing the same file. Several threads print at once, as trials do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Threads(4)
+public class ConsoleBenchmark
+{
+    private static final String LINE = "Trial number 42 succeeded after comparison between files "
+            + "test/output/split/output_42.txt and test/ref/split/ref_42.txt";
+
+    @Param({"TEXT", "JSON"})
+    public SessionLog.Format format;
+
+    private Path root;
+    private JTextArea area;
+    private PrintStream sink;
+    private PrintStream plain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        root = Corpus.create("console");
+        area = new JTextArea();
+        sink = new ConsoleSink(area, new SessionLog(root.resolve("session.log").toFile(), format));
+        plain = new PrintStream(new BufferedOutputStream(new FileOutputStream(root.resolve("plain.log").toFile())),
+                false);
+    }
+
+    /* the console window only ever keeps so much, so keep the text area from growing without bound */
+    @Setup(Level.Iteration)
+    public void clear() throws Exception
+    {
+        javax.swing.SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run()
+            {
+                area.setText("");
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        sink.close();
+        plain.close();
+        Corpus.delete(root);
+    }
+
+    @Benchmark
+    public void consoleSink()
+    {
+        sink.println(LINE);
+    }
+
+    @Benchmark
+    public void plainPrintStream()
+    {
+        plain.println(LINE);
+    }
+}
@@ -0,0 +1,102 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/* Corpus builds the synthetic test directories the benchmarks run against, in a temporary
+   directory that is deleted again once a benchmark's trial is over. Inputs and outputs are named
+   the way students' tests are, input_<n>.txt and output_<n>.txt, and file contents are written in
+   large blocks so that even gigabyte corpora are generated at disk speed.
+ */
+final class Corpus
+{
+    private static final byte[] LINE = "3 1 4 1 5 9 2 6 5 3 5 8 9 7 9 3 2 3 8 4 6 2 6 4 3 3 8 3 2 7 9 5\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private Corpus() {}
+
+    static Path create(String name) throws IOException
+    {
+        return Files.createTempDirectory("tester-bench-" + name + "-");
+    }
+
+    /* creates count empty files named <prefix>_<n>.txt for n from 1 to count */
+    static void files(Path dir, String prefix, int count) throws IOException
+    {
+        Files.createDirectories(dir);
+        for(int i = 1; i <= count; i++)
+        {
+            Files.createFile(dir.resolve(prefix + "_" + i + ".txt"));
+        }
+    }
+
+    /* writes size bytes of line-structured text to file; if differ, the last line is changed */
+    static void text(Path file, long size, boolean differ) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        byte[] block = new byte[1 << 20];
+        for(int i = 0; i < block.length; i++)
+        {
+            block[i] = LINE[i % LINE.length];
+        }
+        try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), block.length))
+        {
+            long left = size;
+            while(left > 0)
+            {
+                int n = (int) Math.min(left, block.length);
+                if(differ && left <= block.length && n > 1)
+                {
+                    byte[] last = Arrays.copyOf(block, n);
+                    last[n - 2] = 'x';
+                    out.write(last, 0, n);
+                }
+                else out.write(block, 0, n);
+                left -= n;
+            }
+        }
+    }
+
+    /* parses sizes such as 1KB, 64MB or 1GB */
+    static long size(String s)
+    {
+        String unit = s.replaceAll("[0-9]", "");
+        long n = Long.parseLong(s.substring(0, s.length() - unit.length()));
+        switch(unit)
+        {
+            case "KB": return n << 10;
+            case "MB": return n << 20;
+            case "GB": return n << 30;
+            default: return n;
+        }
+    }
+
+    static void delete(Path dir) throws IOException
+    {
+        if(dir == null || !Files.exists(dir)) return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException
+            {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /* a console that discards everything, so that benchmarks measure the tester rather than printing */
+    static PrintStream nullConsole()
+    {
+        return new PrintStream(OutputStream.nullOutputStream());
+    }
+}
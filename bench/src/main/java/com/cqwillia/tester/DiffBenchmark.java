@@ -0,0 +1,52 @@
+package com.cqwillia.tester;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* Measures finding the hunks of differences between a failed trial's output and its reference,
+   from a kilobyte to a gigabyte, where the files differ only in their last line. That is the worst
+   case for the diff, which must skip everything before it. The 1GB case needs 2GB of free space in
+   the temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+public class DiffBenchmark
+{
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    private Path root;
+    private File out;
+    private File ref;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        root = Corpus.create("diff");
+        long bytes = Corpus.size(size);
+        Corpus.text(root.resolve("output_1.txt"), bytes, true);
+        Corpus.text(root.resolve("ref_1.txt"), bytes, false);
+        out = root.resolve("output_1.txt").toFile();
+        ref = root.resolve("ref_1.txt").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Corpus.delete(root);
+    }
+
+    @Benchmark
+    public List<DiffEngine.Hunk> diff() throws Exception
+    {
+        return DiffEngine.diff(out, ref, DiffEngine.DEFAULT_HUNKS);
+    }
+}
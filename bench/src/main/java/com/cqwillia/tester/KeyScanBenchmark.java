@@ -0,0 +1,62 @@
+package com.cqwillia.tester;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Measures reading the integer keys of every file in a directory, both for a whole directory,
+   which after the first scan only copies the directory's corpus index, and for the name parsing
+   of single files on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyScanBenchmark
+{
+    @Param({"10", "1000", "100000"})
+    public int fileCount;
+
+    private Path root;
+    private File refDir;
+    private File[] files;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        root = Corpus.create("keys");
+        Corpus.files(root, "ref", fileCount);
+        refDir = root.toFile();
+        files = refDir.listFiles();
+        console = Corpus.nullConsole();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Corpus.delete(root);
+    }
+
+    @Benchmark
+    public Map<Integer, File> scanDirectory()
+    {
+        return TesterLogic.referenceFiles(refDir, console);
+    }
+
+    @Benchmark
+    public void readKeys(Blackhole hole)
+    {
+        for(File f : files)
+        {
+            hole.consume(TesterLogic.readKey(f));
+        }
+    }
+}
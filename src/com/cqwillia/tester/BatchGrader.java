@@ -0,0 +1,144 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* BatchGrader builds and tests every submission directory under a root directory, such as a
+   checkout of each student's repository for one homework. Every compile job and trial of every
+   submission runs on one shared work pool, so its workers take whatever work is queued regardless
+   of which submission it is for. The submissions themselves, which mostly wait for that work, run
+   on a pool of their own; were they on the work pool, submissions waiting for their jobs could
+   hold every worker while the jobs sat in its queue.
+
+   Each submission is treated as the working directory of an ordinary run. It is staged and built
+   in its own scripts/batch/<name> directory and writes its output to <output directory>/<name>,
+   so submissions cannot overwrite each other's executables or results. The command names the
+   executable with the <exec> placeholder, which each submission's run fills in with its own. Compiled objects and trial
+   results are still shared through the content-addressed caches in the cache directory of the
+   scripts directory the batch was started with.
+ */
+final class BatchGrader
+{
+    static final class Row
+    {
+        final String name;
+        final boolean built;
+        final RunReport report;
+
+        Row(String name, boolean built, RunReport report)
+        {
+            this.name = name;
+            this.built = built;
+            this.report = report;
+        }
+
+        boolean isSuccessful()
+        {
+            return built && report != null && report.isSuccessful();
+        }
+    }
+
+    private BatchGrader() {}
+
+    /* grades every submission under root, printing each submission's log to console as it completes */
+    static List<Row> grade(File root, String[] prefs, final String command, RunOptions options, PrintStream console)
+    {
+        File[] found = root.listFiles();
+        List<File> submissions = new ArrayList<>();
+        if(found != null)
+        {
+            for(File f : found)
+            {
+                if(f.isDirectory() && !f.getName().startsWith(".")) submissions.add(f);
+            }
+        }
+        Collections.sort(submissions);
+        console.println("Grading " + submissions.size() + " submissions under " + root.getPath() + ".");
+
+        if(!command.contains("<exec>"))
+            console.println("WARNING: The command does not name the test executable as <exec>, so every "
+                    + "submission runs the same program rather than its own.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(options.getConcurrency());
+        ExecutorService work = Executors.newFixedThreadPool(options.getConcurrency());
+        List<Future<Row>> tasks = new ArrayList<>();
+        final List<ByteArrayOutputStream> logs = new ArrayList<>();
+        try
+        {
+            for(final File submission : submissions)
+            {
+                final String[] p = prefs.clone();
+                p[Tester.I_WDIR] = submission.getAbsolutePath();
+                p[Tester.I_OUTDIR] = new File(prefs[Tester.I_OUTDIR], submission.getName()).getAbsolutePath();
+
+                final RunOptions o = options.copy();
+                o.setScriptsDir(new File(new File(options.getScriptsDir(), "batch"), submission.getName()));
+                o.setCacheDir(options.getCacheDir());
+                o.setExecutor(work);
+
+                final ByteArrayOutputStream log = new ByteArrayOutputStream();
+                logs.add(log);
+                tasks.add(pool.submit(new Callable<Row>() {
+                    @Override
+                    public Row call()
+                    {
+                        PrintStream out = new PrintStream(log, true);
+                        RunControl control = new RunControl();
+                        out.println("=== " + submission.getName() + " ===");
+                        if(!CommandBuilder.build(p, o, control, out)) return new Row(submission.getName(), false, null);
+                        return new Row(submission.getName(), true, CommandBuilder.run(p, command, o, control, out));
+                    }
+                }));
+            }
+
+            List<Row> rows = new ArrayList<>();
+            for(int i = 0; i < tasks.size(); i++)
+            {
+                rows.add(await(tasks.get(i), submissions.get(i).getName(), logs.get(i)));
+                console.print(logs.get(i).toString());
+            }
+            return rows;
+        } finally
+        {
+            pool.shutdownNow();
+            work.shutdownNow();
+        }
+    }
+
+    /* waits for the grading of one submission, recording a failure to grade it in its log */
+    private static Row await(Future<Row> task, String name, ByteArrayOutputStream log)
+    {
+        PrintStream out = new PrintStream(log, true);
+        try
+        {
+            return task.get();
+        } catch(ExecutionException x)
+        {
+            out.println("ERROR: Grading " + name + " failed unexpectedly:");
+            x.getCause().printStackTrace(out);
+        } catch(InterruptedException i)
+        {
+            Thread.currentThread().interrupt();
+            out.println("ERROR: Grading " + name + " was interrupted.");
+        }
+        return new Row(name, false, null);
+    }
+
+    static void printTable(List<Row> rows, PrintStream out)
+    {
+        String format = "%-32s %-7s %7s %7s %10s %9s%n";
+        out.printf(format, "submission", "build", "passed", "failed", "unchecked", "valgrind");
+        for(Row r : rows)
+        {
+            if(r.report == null)
+            {
+                out.printf(format, r.name, r.built ? "ok" : "failed", "-", "-", "-", "-");
+                continue;
+            }
+            out.printf(format, r.name, "ok", r.report.count(RunReport.Status.PASSED),
+                    r.report.count(RunReport.Status.FAILED), r.report.count(RunReport.Status.UNCHECKED),
+                    r.report.valgrindErrors());
+        }
+    }
+}
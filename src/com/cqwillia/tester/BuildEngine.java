@@ -0,0 +1,230 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* BuildEngine compiles a test executable without make. Each dependency object is an independent
+   compile job, so all of them run in parallel; the link of the test script against the objects
+   runs once every compile job has succeeded.
+
+   Whether a job needs to run is decided by content rather than modification times. Objects are
+   looked up in the ObjectCache by their key, and the executable is relinked only when the key
+   recorded next to it, which covers the flags, the test script and every object key, changes.
+   Compiler diagnostics are streamed to the console as they are produced, and the build reports
+   failure as soon as any job fails so that trials are never run against a stale executable.
+   The time taken by every compile job and the link is recorded in timings.
+ */
+final class BuildEngine
+{
+    private final Path scriptsDir;
+    private final String flags;
+    private final ObjectCache cache;
+    private final RunControl control;
+    private final PrintStream console;
+    private final ExecutorService executor;
+    private final int jobs;
+    final Timings timings = new Timings();
+
+    /* compile jobs run on executor if it is not null, otherwise on a pool of up to jobs threads */
+    BuildEngine(Path scriptsDir, String flags, ObjectCache cache, RunControl control, PrintStream console,
+                ExecutorService executor, int jobs)
+    {
+        this.scriptsDir = scriptsDir;
+        this.flags = flags;
+        this.cache = cache;
+        this.control = control;
+        this.console = console;
+        this.executor = executor;
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /* builds bin/<testName> from src/<testScript> and each object in deps; returns whether it succeeded */
+    boolean build(String testName, String testScript, List<String> deps)
+    {
+        //derive every object's key up front; these are the nodes of the dependency graph
+        final Map<String, String> keys = new LinkedHashMap<>();
+        try
+        {
+            for(String dep : deps)
+            {
+                keys.put(dep, ObjectCache.key(source(dep), flags));
+            }
+        } catch(IOException e)
+        {
+            console.println("ERROR: Failed to read sources for test " + testName + ":");
+            e.printStackTrace(console);
+            return false;
+        }
+
+        ExecutorService pool = executor != null ? executor
+                : Executors.newFixedThreadPool(Math.min(jobs, Math.max(1, deps.size())));
+        try
+        {
+            List<Future<Boolean>> compiles = new ArrayList<>();
+            for(final Map.Entry<String, String> node : keys.entrySet())
+            {
+                compiles.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException, InterruptedException
+                    {
+                        return compile(node.getKey(), node.getValue());
+                    }
+                }));
+            }
+
+            //the first failure stops the build; jobs still running finish on their own
+            for(Future<Boolean> compile : compiles)
+            {
+                if(!compile.get()) return false;
+            }
+        } catch(ExecutionException x)
+        {
+            if(!control.isCancelled())
+            {
+                console.println("ERROR: Compile job failed unexpectedly:");
+                x.getCause().printStackTrace(console);
+            }
+            return false;
+        } catch(InterruptedException i)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally
+        {
+            if(pool != executor) pool.shutdown();
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            return link(testName, testScript, keys);
+        } catch(IOException | InterruptedException e)
+        {
+            if(!control.isCancelled())
+            {
+                console.println("ERROR: Failed to link test " + testName + ":");
+                e.printStackTrace(console);
+            }
+            return false;
+        } finally
+        {
+            timings.record("link", start);
+        }
+    }
+
+    private boolean compile(String dep, String key) throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            return compileObject(dep, key);
+        } finally
+        {
+            timings.record("compile " + dep, start);
+        }
+    }
+
+    private boolean compileObject(String dep, String key) throws IOException, InterruptedException
+    {
+        Path object = bin(dep);
+        if(cache.restore(key, object))
+        {
+            console.println("Object " + dep + " is up to date in the object cache.");
+            TesterMetrics.BUILD.cacheHit();
+            return true;
+        }
+
+        console.println("Compiling " + dep);
+        long start = System.nanoTime();
+        String src = scriptsDir.relativize(source(dep)).toString();
+        String obj = scriptsDir.relativize(object).toString();
+        if(!execute(dep, "g++", flags, "-c", src, "-o", obj)) return false;
+        TesterMetrics.BUILD.compiled(System.nanoTime() - start);
+
+        cache.store(key, object);
+        return true;
+    }
+
+    private boolean link(String testName, String testScript, Map<String, String> keys)
+            throws IOException, InterruptedException
+    {
+        Path exec = bin(testName);
+        Path keyFile = exec.resolveSibling(testName + ".key");
+
+        MessageDigest digest = Hashes.sha256();
+        digest.update(ObjectCache.key(scriptsDir.resolve("src").resolve(testScript), flags)
+                .getBytes(StandardCharsets.UTF_8));
+        for(String key : keys.values())
+        {
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+        }
+        String linkKey = Hashes.hex(digest.digest());
+
+        if(Files.isRegularFile(exec) && Files.isRegularFile(keyFile)
+                && new String(Files.readAllBytes(keyFile), StandardCharsets.UTF_8).equals(linkKey))
+        {
+            console.println("Test executable " + testName + " is up to date.");
+            TesterMetrics.BUILD.linkSkipped();
+            return true;
+        }
+
+        console.println("Linking " + testName);
+        List<String> command = new ArrayList<>(Arrays.asList("g++", flags, "src" + File.separator + testScript));
+        for(String dep : keys.keySet())
+        {
+            command.add(scriptsDir.relativize(bin(dep)).toString());
+        }
+        command.add("-o");
+        command.add(scriptsDir.relativize(exec).toString());
+
+        //a stale key must not survive a failed link
+        Files.deleteIfExists(keyFile);
+        long start = System.nanoTime();
+        if(!execute(testName, command.toArray(new String[0]))) return false;
+        TesterMetrics.BUILD.linked(System.nanoTime() - start);
+        Files.write(keyFile, linkKey.getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    /* runs one compiler invocation in the scripts directory, streaming its diagnostics to the console */
+    private boolean execute(String target, String... command) throws IOException, InterruptedException
+    {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(scriptsDir.toFile());
+        builder.redirectErrorStream(true);
+        Process p = control.start(builder);
+        try
+        {
+            try(BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream())))
+            {
+                String line;
+                while((line = out.readLine()) != null)
+                {
+                    console.println("[" + target + "] " + line);
+                }
+            }
+            int exit = p.waitFor();
+            if(exit != 0 && !control.isCancelled())
+                console.println("ERROR: Building " + target + " failed with exit code " + exit + ".");
+            return exit == 0 && !control.isCancelled();
+        } finally
+        {
+            control.finished(p);
+        }
+    }
+
+    private Path source(String dep)
+    {
+        return scriptsDir.resolve("src").resolve(dep.substring(0, dep.length()-2) + ".cpp");
+    }
+
+    private Path bin(String name)
+    {
+        return scriptsDir.resolve("bin").resolve(name);
+    }
+}
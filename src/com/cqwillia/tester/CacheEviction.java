@@ -0,0 +1,91 @@
+package com.cqwillia.tester;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/* CacheEviction keeps a cache directory under a size limit by deleting its least recently used
+   files. A file counts as used when it is written or touched, so a cache touches whatever it reads
+   from, and the modification times of the files order them from least to most recently used.
+   Trimming lists the whole directory, so caches trim once per build or run rather than per file.
+
+   Another thread may be reading a file as it is deleted; that read still completes, and a cache
+   that looks a file up after it has gone treats it as a miss. Files ending in .tmp are still being
+   written, and are neither counted nor deleted.
+ */
+final class CacheEviction
+{
+    private CacheEviction() {}
+
+    /* marks file as just used; a file that has already been evicted is left alone */
+    static void touch(Path file)
+    {
+        try
+        {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch(IOException e)
+        {
+            //evicted since it was looked up, which only costs the next lookup
+        }
+    }
+
+    /* deletes the least recently used files directly in dir until they total at most maxBytes;
+       returns the number of files deleted */
+    static int trim(Path dir, long maxBytes) throws IOException
+    {
+        if(maxBytes <= 0 || !Files.isDirectory(dir)) return 0;
+
+        final List<Path> files = new ArrayList<>();
+        final List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir))
+        {
+            for(Path file : stream)
+            {
+                BasicFileAttributes a;
+                try
+                {
+                    a = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch(NoSuchFileException e)
+                {
+                    continue;
+                }
+                if(!a.isRegularFile() || file.getFileName().toString().endsWith(".tmp")) continue;
+                files.add(file);
+                attributes.add(a);
+                total += a.size();
+            }
+        }
+        if(total <= maxBytes) return 0;
+
+        List<Integer> order = new ArrayList<>();
+        for(int i = 0; i < files.size(); i++)
+        {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+            }
+        });
+
+        int deleted = 0;
+        for(int i = 0; i < order.size() && total > maxBytes; i++)
+        {
+            int oldest = order.get(i);
+            if(Files.deleteIfExists(files.get(oldest))) deleted++;
+            total -= attributes.get(oldest).size();
+        }
+        return deleted;
+    }
+}
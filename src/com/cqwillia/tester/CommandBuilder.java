@@ -3,10 +3,15 @@ package com.cqwillia.tester;
 import com.cqwillia.tester.exceptions.AngleExpressionException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
 
 public final class CommandBuilder
 {
@@ -19,20 +24,39 @@ public final class CommandBuilder
         dependencies = Collections.unmodifiableMap(m);
     }
 
-    /* This function creates and builds:
-        - a Makefile if necessary for compiling the test script
-        - a sequence of commands including compilation and execution with valgrind
-       Each of these operations is based on the identity of the test being executed by the
-       parent Tester, stored in the private field test.
+    /* flags passed to g++ for every compilation, which also form part of each object's cache key */
+    private static final String COMPILE_FLAGS = "-g";
+
+    /* the valgrind invocation of the default command, also used to check trials of a two-phase run */
+    static final String DEFAULT_VALGRIND = "valgrind --tool=memcheck --leak-check=yes";
+
+    /* This function stages the sources of the test being executed by the parent Tester into
+       scripts/src and compiles them into scripts/bin with a BuildEngine:
+        - each dependency listed in the static Map dependencies is compiled to an object, in parallel
+        - the test script is linked against those objects into the test executable
+       The scripts directory, and the executor compile jobs run on, are taken from options.
+       Returns false if any step fails or the build is cancelled, in which case no trials should
+       be run, since the executable in scripts/bin may be stale. How long staging and each
+       compile and link took is printed once the build is done.
      */
-    public static void build(String[] prefs, PrintStream console)
+    public static boolean build(String[] prefs, PrintStream console)
+    {
+        return build(prefs, new RunOptions(), new RunControl(), console);
+    }
+
+    public static boolean build(String[] prefs, RunControl control, PrintStream console)
+    {
+        return build(prefs, new RunOptions(), control, console);
+    }
+
+    public static boolean build(String[] prefs, RunOptions options, RunControl control, PrintStream console)
     {
         String thisDeps = dependencies.get(prefs[Tester.I_TESTNAME]);
+        File scripts = options.getScriptsDir();
 
         //If there is no script directory, create the script directory (this shouldn't happen...)
-        String sep = System.getProperty("file.separator");
-        File binDir = new File("scripts" + sep + "bin");
-        File srcDir = new File("scripts" + sep + "src");
+        File binDir = new File(scripts, "bin");
+        File srcDir = new File(scripts, "src");
         if(!binDir.exists() || !binDir.isDirectory())
         {
             binDir.mkdirs();
@@ -40,88 +64,84 @@ public final class CommandBuilder
             console.println(binDir.getName() + " has been created. Don't delete the script directory!");
         }
 
-        //create the makefile in the user.dir/scripts directory
-        File makefile = new File("scripts", "Makefile");
+        /* Stage the test script and each dependency's source and header into scripts/src.
+           Files are only copied when their contents have changed.
+         */
+        long buildStart = System.nanoTime();
+        File testScriptFile = new File(prefs[Tester.I_TESTPATH]);
+        List<String> deps = Arrays.asList(thisDeps.split(" "));
         try
         {
-            if(!makefile.exists()) makefile.createNewFile();
+            for(File source : sources(prefs))
+            {
+                //headers are optional
+                if(source.getName().endsWith(".h") && !source.isFile()) continue;
+                SourceStager.stage(source.toPath(), Paths.get(srcDir.getPath(), source.getName()));
+            }
         } catch(IOException e)
         {
+            console.println("ERROR: Failed to stage sources for test " + prefs[Tester.I_TESTNAME] + ":");
             e.printStackTrace(console);
-            return;
+            TesterMetrics.BUILD.built(false, System.nanoTime() - buildStart);
+            return false;
         }
 
-        /* Begin writing to the Makefile.
-           The Makefile has the all target, which relies on each dependency listed
-           in the static Map dependencies plus the test script itself.
-         */
-        try(BufferedWriter makeWriter = new BufferedWriter(new PrintWriter(new FileOutputStream(makefile.getPath()))))
-        {
-            //Copy the test script into the scripts/src directory
-            File testScriptFile = new File(prefs[Tester.I_TESTPATH]);
-            String testPathFromMake = "src" + sep + testScriptFile.getName();
-            Files.copy(testScriptFile.toPath(), Paths.get("scripts" + sep + testPathFromMake),
-                    StandardCopyOption.REPLACE_EXISTING);
-
-            //write the all block
-            makeWriter.write("all: " + thisDeps + " ");
-            makeWriter.write(testPathFromMake);
-            makeWriter.newLine();
-            makeWriter.write("\tg++ -g " + testPathFromMake);
-            for(String dep : thisDeps.split(" "))
-            {
-                String b = "bin" + sep + dep;
-                makeWriter.write(" " + b);
-            }
-            makeWriter.write(" -o bin" + sep + prefs[Tester.I_TESTNAME]);
-            makeWriter.newLine();
-            makeWriter.newLine();
-
-            //write a block for each dependency for this test
-            for(String dep : thisDeps.split(" "))
-            {
-                //Copy the dependency script into the scripts/src directory
-                File depScriptFile = new File(prefs[Tester.I_WDIR] + sep + dep.substring(0, dep.length()-2) + ".cpp");
-                File depScriptH = new File(prefs[Tester.I_WDIR] + sep + dep.substring(0, dep.length()-2) + ".h");
-                String depPathFromMake = "src" + sep + depScriptFile.getName();
-                Files.copy(depScriptFile.toPath(), Paths.get("scripts" + sep + depPathFromMake),
-                        StandardCopyOption.REPLACE_EXISTING);
-
-                makeWriter.write(dep + ": " + depPathFromMake);
-                if(depScriptH.isFile())
-                {
-                    String hPathFromMake = "src" + sep + depScriptH.getName();
-                    Files.copy(depScriptH.toPath(), Paths.get("scripts" + sep + hPathFromMake),
-                            StandardCopyOption.REPLACE_EXISTING);
+        long stagingNanos = System.nanoTime() - buildStart;
+        console.println("Making script executable for test " + prefs[Tester.I_TESTNAME]);
+        ObjectCache objects = new ObjectCache(new File(options.getCacheDir(), "objects").toPath());
+        BuildEngine engine = new BuildEngine(scripts.toPath(), COMPILE_FLAGS, objects, control, console,
+                options.getExecutor(), Runtime.getRuntime().availableProcessors());
+        boolean built = engine.build(prefs[Tester.I_TESTNAME], testScriptFile.getName(), deps);
+        trim(objects, console);
+        TesterMetrics.BUILD.built(built && !control.isCancelled(), System.nanoTime() - buildStart);
+        console.println("Build took " + Timings.millis(System.nanoTime() - buildStart) + ": staging "
+                + Timings.millis(stagingNanos) + ", " + engine.timings.describe() + ".");
+        if(control.isCancelled()) console.println("Build cancelled.");
+        else if(!built) console.println("ERROR: Build failed. Trials will not be run.");
+        return built && !control.isCancelled();
+    }
 
-                    makeWriter.write(" " + hPathFromMake);
-                }
-                makeWriter.newLine();
-                makeWriter.write("\tg++ -g -c " + depPathFromMake + " -o " + "bin" + sep + dep);
-                makeWriter.newLine();
-                makeWriter.newLine();
-            }
-        } catch(Exception f)
+    /* returns the files build stages for the test: the test script, then the source and header of
+       each dependency in the working directory, whether or not the header exists
+     */
+    static List<File> sources(String[] prefs)
+    {
+        List<File> sources = new ArrayList<>();
+        sources.add(new File(prefs[Tester.I_TESTPATH]));
+        for(String dep : dependencies.get(prefs[Tester.I_TESTNAME]).split(" "))
         {
-            f.printStackTrace(console);
-            return;
+            String base = dep.substring(0, dep.length()-2);
+            sources.add(new File(prefs[Tester.I_WDIR], base + ".cpp"));
+            sources.add(new File(prefs[Tester.I_WDIR], base + ".h"));
         }
+        return sources;
+    }
 
-        //Create a ProcessBuilder in the userDir/scripts directory and use it to make
-        ProcessBuilder maker = new ProcessBuilder("make");
-        maker.directory(new File("scripts"));
-        console.println("Making script executable for test " + prefs[Tester.I_TESTNAME]);
-        try
-        {
-            maker.start().waitFor();
-        } catch(IOException | InterruptedException e)
-        {
-            console.println("ERROR: Failed to start makefile process.");
-        }
+    public static RunReport run(String[] prefs, String comm, PrintStream console)
+    {
+        return run(prefs, comm, new RunOptions(), new RunControl(), console);
     }
 
-    public static void run(String[] prefs, String comm, PrintStream console)
+    public static RunReport run(String[] prefs, String comm, RunOptions options, PrintStream console)
     {
+        return run(prefs, comm, options, new RunControl(), console);
+    }
+
+    /* Runs every trial generated from the command template comm. Up to options.getConcurrency()
+       trials execute at once on a bounded pool; whatever order they finish in, each trial's
+       console output and valgrind verdict are reported in key order. Progress is reported to
+       control as trials finish, and cancelling control kills the trials still in flight.
+
+       Unless options.getValgrindMode() is INLINE, a run has two phases. Every trial first runs
+       natively, with any valgrind prefix stripped from comm, to reach its verdict at full speed;
+       then only the trials the mode selects are run again under valgrind to check their memory use.
+       If options.getTrialKeys() is set, only the trials with those keys are run and compared.
+       Returns a report of every trial and comparison, or null if the trials could not be run.
+     */
+    public static RunReport run(String[] prefs, String comm, final RunOptions options, final RunControl control,
+                           PrintStream console)
+    {
+        long runStart = System.nanoTime();
         try
         {
             File inDir = new File(prefs[Tester.I_INDIR]);
@@ -133,51 +153,133 @@ public final class CommandBuilder
                 {
                     console.println("ERROR: Specified output directory " + prefs[Tester.I_OUTDIR] + " does not exist " +
                             "and cannot be created by the Java Virtual Machine. Please create it manually.");
-                    return;
+                    return null;
                 }
             }
 
-            ArrayList<String> valFailed = new ArrayList<>();
-            boolean valError = false;
-            Map<String, File> parsed = new HashMap<>();
-            TesterLogic.parseCommand(comm, inDir, outDir, console, parsed);
-            Set<String> commands = parsed.keySet();
-            for(String c : commands)
-            {
-                String[] arguments = c.split(" ");
-                ProcessBuilder builder = new ProcessBuilder(arguments);
-                console.println("Conducting test " + c);
-                Process p = builder.start();
-                BufferedReader consoleIn = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                BufferedReader consoleErr = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-
-                console.println("Writing outcome of test to " + parsed.get(c).toPath().toString());
-                BufferedWriter fileOut = new BufferedWriter(new FileWriter(parsed.get(c)));
-                String consoleLine;
-                while((consoleLine = consoleIn.readLine()) != null)
+            RunOptions.ValgrindMode mode = options.getValgrindMode();
+            String[] valgrind = splitValgrind(comm);
+            String trialComm = mode == RunOptions.ValgrindMode.INLINE ? comm : valgrind[1];
+            if(mode == RunOptions.ValgrindMode.NONE)
+                console.println("Running trials natively, without valgrind.");
+            else if(mode != RunOptions.ValgrindMode.INLINE)
+                console.println("Running trials natively; valgrind will then check " + mode.describe() + ".");
+
+            //the template is compiled once here and only applied to each trial's files
+            Timings timings = new Timings();
+            long phase = System.nanoTime();
+            SessionLog.phase("setup");
+            final File refDir = new File(prefs[Tester.I_REFDIR]);
+            Map<Integer, Trial> trials = new TreeMap<>();
+            Path exec = Paths.get(options.getScriptsDir().getPath(), "bin", prefs[Tester.I_TESTNAME]);
+            TesterLogic.parseCommand(CommandTemplate.compile(trialComm, exec.toFile()), inDir, outDir, refDir,
+                    console, trials);
+            if(options.getTrialKeys() != null)
+            {
+                trials.keySet().retainAll(options.getTrialKeys());
+                console.println("Running the " + trials.size() + " trials affected by the change.");
+            }
+            timings.record("setup", phase);
+
+            //in tee mode each trial is compared against its reference as its output arrives
+            if(options.isTeeCompare())
+            {
+                Map<Integer, File> refs = TesterLogic.referenceFiles(refDir, console);
+                for(Trial t : trials.values())
                 {
-                    fileOut.write(consoleLine);
-                    fileOut.newLine();
+                    t.reference = refs.get(t.key);
                 }
-                fileOut.close();
+            }
+
+            phase = System.nanoTime();
+            SessionLog.phase("trials");
+            if(!runTrials(trials.values(), options, control, resultCache(options, exec, trialComm), true, console))
+                return null;
+            timings.record("trials", phase);
+
+            if(control.isCancelled())
+            {
+                console.println("Run cancelled. Remaining trials have been stopped.");
+                return finished(new RunReport(trials, new TreeMap<Integer, Comparison>(), true), runStart);
+            }
+
+            phase = System.nanoTime();
+            SessionLog.phase("comparison");
+            Map<Integer, Comparison> comparisons = new TreeMap<>();
+            if(options.isTeeCompare())
+            {
+                console.println("Outcomes were compared against reference solutions while trials ran.");
+                for(Trial t : trials.values())
+                {
+                    if(t.comparison == null)
+                        console.println("No corresponding reference file found to check output from " +
+                                t.output.getName() + ".");
+                    else
+                    {
+                        SessionLog.trial(t.key, t.wallNanos);
+                        console.println(TesterLogic.describe(t.key, t.output, t.reference, t.comparison));
+                        //without an output file there is nothing to diff, and whatever file is there is stale
+                        if(!t.comparison.passed && options.isWriteOutput())
+                            TesterLogic.printDiff(t.output, t.reference, t.comparison, options.getDiffHunks(), console);
+                        else if(!t.comparison.passed && options.getDiffHunks() > 0)
+                            console.println("    No differences are shown, as the output was not written to "
+                                    + t.output.getName() + ".");
+                        SessionLog.endTrial();
+                        comparisons.put(t.key, t.comparison);
+                    }
+                }
+            }
+            else
+            {
+                console.println("Comparing outcomes between output file and reference solutions.");
+                comparisons = TesterLogic.compareResults(outDir, refDir, options.isMappedCompare(),
+                        options.getTrialKeys(), options.getDiffHunks(), console);
+            }
+            timings.record("comparison", phase);
 
-                console.println("Reading valgrind log");
-                String errLine;
-                while((errLine = consoleErr.readLine()) != null)
+            if(mode != RunOptions.ValgrindMode.INLINE)
+            {
+                List<Trial> selected = selectForValgrind(trials, comparisons, options);
+                if(!selected.isEmpty())
                 {
-                    if(errLine.contains("blocks are definitely lost") || errLine.contains("Invalid")
-                            && !valFailed.contains(parsed.get(c).toString()))
+                    String prefix = valgrind[0] != null ? valgrind[0] : DEFAULT_VALGRIND;
+                    List<String> prefixArgs = CommandTemplate.compile(prefix).apply(0, null, null, null);
+                    console.println("Checking " + selected.size() + " of " + trials.size() + " trials under valgrind.");
+                    Map<Integer, Trial> checks = new TreeMap<>();
+                    for(Trial t : selected)
+                    {
+                        List<String> argv = new ArrayList<>(prefixArgs);
+                        argv.addAll(t.argv);
+                        checks.put(t.key, new Trial(t.key, argv, t.input, t.output));
+                    }
+                    phase = System.nanoTime();
+                    SessionLog.phase("valgrind checks");
+                    if(!runTrials(checks.values(), options, control,
+                            resultCache(options, exec, prefix + " " + trialComm), false, console))
+                        return null;
+                    timings.record("valgrind checks", phase);
+                    if(control.isCancelled())
                     {
-                        valError = true;
-                        console.println("Valgrind error in trial corresponding to output file " + parsed.get(c));
-                        valFailed.add(parsed.get(c).toString());
+                        console.println("Run cancelled. Remaining trials have been stopped.");
+                        return finished(new RunReport(trials, comparisons, true), runStart);
+                    }
+                    for(Trial check : checks.values())
+                    {
+                        Trial t = trials.get(check.key);
+                        t.memcheck = check.memcheck;
+                        t.valgrindError = check.valgrindError;
                     }
                 }
+                else console.println("No trials selected to be checked under valgrind.");
             }
 
-            console.println("Comparing outcomes between output file and reference solutions.");
-            TesterLogic.compareResults(outDir, new File(prefs[Tester.I_REFDIR]), console);
-            if(valError)
+            SessionLog.phase(null);
+            Set<String> valFailed = new LinkedHashSet<>();
+            for(Trial t : trials.values())
+            {
+                if(t.valgrindError) valFailed.add(t.output.toString());
+            }
+            if(!valFailed.isEmpty())
             {
                 String valWarning = "WARNING: Valgrind errors detected in trials corresponding to output files ";
                 for(String s : valFailed)
@@ -191,6 +293,8 @@ public final class CommandBuilder
             {
                 console.println("No valgrind errors detected.");
             }
+            timings.print(trials.values(), console);
+            return finished(new RunReport(trials, comparisons, false, timings.phases()), runStart);
         }
         catch(AngleExpressionException a)
         {
@@ -201,11 +305,414 @@ public final class CommandBuilder
             console.println("ERROR: Failed to create output file:");
             e.printStackTrace(console);
         }
+        finally
+        {
+            SessionLog.clear();
+        }
+        return null;
+    }
+
+    /* records a run that has finished or been cancelled in the run metrics */
+    private static RunReport finished(RunReport report, long runStart)
+    {
+        TesterMetrics.RUN.finished(report, System.nanoTime() - runStart);
+        return report;
+    }
+
+    /* Runs trials on the shared executor if options has one, otherwise on a pool of their own, and
+       prints each trial's log in key order. If capture is false, the trials' standard output is
+       drained without being written or compared; their output files are left as they are.
+       Returns false if a trial failed unexpectedly or the wait was interrupted.
+     */
+    private static boolean runTrials(Collection<Trial> trials, final RunOptions options, final RunControl control,
+                                     final ResultCache cache, final boolean capture, PrintStream console)
+            throws IOException
+    {
+        final int total = trials.size();
+        control.phaseStarted(total);
+        final boolean outputWritten = options.isWriteOutput() || !options.isTeeCompare();
+        int threads = Math.max(1, Math.min(options.getConcurrency(), total));
+        ExecutorService pool = options.getExecutor() != null ? options.getExecutor()
+                : Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Trial>> results = new ArrayList<>();
+            for(final Trial t : trials)
+            {
+                results.add(pool.submit(new Callable<Trial>() {
+                    @Override
+                    public Trial call() throws IOException
+                    {
+                        if(control.isCancelled()) return t;
+                        long start = System.nanoTime();
+                        try
+                        {
+                            //trials whose executable, input and command are unchanged can reuse their previous result
+                            String cacheKey = cache == null ? null : cache.key(t);
+                            if(cacheKey != null && cache.restore(t, cacheKey, options, capture))
+                            {
+                                t.cached = true;
+                                t.wallNanos = System.nanoTime() - start;
+                                TesterMetrics.RUN.trialFinished(t);
+                                control.trialFinished(total);
+                                return t;
+                            }
+
+                            runTrial(t, options, control, capture);
+                            if(cacheKey != null && (outputWritten || !capture) && t.limitExceeded == null
+                                    && !control.isCancelled())
+                                cache.store(t, cacheKey);
+                        } catch(IOException e)
+                        {
+                            //a trial killed by cancellation is expected to fail part way through
+                            if(!control.isCancelled()) throw e;
+                        }
+                        t.wallNanos = System.nanoTime() - start;
+                        TesterMetrics.RUN.trialFinished(t);
+                        control.trialFinished(total);
+                        return t;
+                    }
+                }));
+            }
+
+            //collect the trials in key order, printing each one's output as it becomes available
+            for(Future<Trial> f : results)
+            {
+                if(control.isCancelled()) break;
+                Trial t = f.get();
+                SessionLog.trial(t.key, t.wallNanos);
+                for(String line : t.log)
+                {
+                    console.println(line);
+                }
+                SessionLog.endTrial();
+            }
+            if(cache != null) trim(cache, console);
+            return true;
+        }
+        catch(ExecutionException x)
+        {
+            if(x.getCause() instanceof IOException) throw (IOException) x.getCause();
+            console.println("ERROR: Trial failed unexpectedly:");
+            x.getCause().printStackTrace(console);
+            return false;
+        }
+        catch(InterruptedException i)
+        {
+            console.println("ERROR: Interrupted while waiting for trials to finish.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            if(pool != options.getExecutor()) pool.shutdownNow();
+        }
+    }
+
+    private static void trim(ResultCache cache, PrintStream console)
+    {
+        try
+        {
+            cache.trim();
+        } catch(IOException e)
+        {
+            console.println("WARNING: Failed to evict old results from the result cache: " + e.getMessage());
+        }
+    }
+
+    private static void trim(ObjectCache cache, PrintStream console)
+    {
+        try
+        {
+            cache.trim();
+        } catch(IOException e)
+        {
+            console.println("WARNING: Failed to evict old objects from the object cache: " + e.getMessage());
+        }
+    }
+
+    private static ResultCache resultCache(RunOptions options, Path exec, String template)
+    {
+        return options.isResultCache() ? ResultCache.open(new File(options.getCacheDir(), "results").toPath(), exec,
+                template) : null;
+    }
+
+    /* returns the trials a two-phase run checks under valgrind, in key order */
+    private static List<Trial> selectForValgrind(Map<Integer, Trial> trials, Map<Integer, Comparison> comparisons,
+                                                 RunOptions options)
+    {
+        List<Trial> all = new ArrayList<>(trials.values());
+        List<Trial> selected = new ArrayList<>();
+        switch(options.getValgrindMode())
+        {
+            case ALL:
+                selected.addAll(all);
+                break;
+            case FAILURES:
+                for(Trial t : all)
+                {
+                    Comparison c = comparisons.get(t.key);
+                    if(c != null && !c.passed) selected.add(t);
+                }
+                break;
+            case SAMPLE:
+                //spread evenly over the keys, so that the same trials are sampled every run
+                int n = Math.min(options.getValgrindSample(), all.size());
+                for(int i = 0; i < n; i++)
+                {
+                    selected.add(all.get((int) ((long) i * all.size() / n)));
+                }
+                break;
+            default:
+                break;
+        }
+        return selected;
+    }
+
+    /* Executes a single trial, writing its standard output to the trial's output file and reading
+       the memcheck report of a trial run under valgrind. Unless options turn it off, valgrind is
+       asked to write its report as XML to a temporary file; otherwise the text report on standard
+       error is parsed. The trial runs under the Watchdog, which kills it if it exceeds any of the
+       limits in options.
+       With direct capture, standard output is redirected straight to the output file, or discarded
+       if capture is false, and standard error to the trial's log in the stderr directory next to it.
+       Otherwise, and always in tee mode, where standard output is checked against the trial's
+       reference as it arrives and writing the output file may be skipped altogether, standard error
+       is drained by a StreamPump while the calling thread copies standard output, so neither pipe
+       can fill up and stall the child. If capture is false, standard output is only drained.
+       Messages go to the trial's own log rather than the console.
+     */
+    private static void runTrial(final Trial t, RunOptions options, RunControl control, boolean capture)
+            throws IOException
+    {
+        List<String> arguments = new ArrayList<>(t.argv);
+        boolean underValgrind = new File(arguments.get(0)).getName().equals("valgrind");
+        Path xml = null;
+        if(underValgrind && options.isValgrindXml() && !t.command.contains("--xml"))
+        {
+            xml = Files.createTempFile("memcheck-" + t.key + "-", ".xml");
+            arguments.add(1, "--xml=yes");
+            arguments.add(2, "--xml-file=" + xml);
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(arguments);
+        //output that is not compared as it streams in is written by the kernel, never passing through the tester
+        boolean direct = options.isDirectCapture() && !(capture && options.isTeeCompare());
+        if(direct)
+        {
+            File log = stderrLog(t.output);
+            log.getParentFile().mkdirs();
+            builder.redirectOutput(capture ? ProcessBuilder.Redirect.to(t.output) : ProcessBuilder.Redirect.DISCARD);
+            builder.redirectError(ProcessBuilder.Redirect.to(log));
+        }
+        t.println("Conducting test " + t.command);
+        try
+        {
+            ValgrindParser parser = new ValgrindParser();
+            Process p = control.start(builder);
+            Watchdog.Watch watch = Watchdog.watch(p, options);
+            try
+            {
+                if(direct) awaitTrial(t, p, parser, underValgrind && xml == null, capture, watch);
+                else pumpTrial(t, p, options, parser, capture, watch);
+            } finally
+            {
+                watch.close();
+                control.finished(p);
+            }
+            watch.exited();
+            t.cpuMillis = watch.cpuMillis();
+            t.peakRssBytes = watch.peakRssBytes();
+
+            if(watch.exceeded() != null)
+            {
+                t.limitExceeded = watch.exceeded();
+                t.println("ERROR: Trial " + t.key + " exceeded its " + watch.exceeded() + " and was killed.");
+            }
+
+            if(underValgrind)
+            {
+                t.println("Reading valgrind log");
+                t.setMemcheck(xml != null && Files.size(xml) > 0 ? ValgrindParser.parseXml(xml) : parser.finish());
+            }
+        } finally
+        {
+            if(xml != null) Files.deleteIfExists(xml);
+        }
+    }
+
+    private static void pumpTrial(final Trial t, Process p, RunOptions options, ValgrindParser parser,
+                                  boolean capture, Watchdog.Watch watch) throws IOException
+    {
+        StreamPump errPump = new StreamPump("stderr-" + t.key, p.getErrorStream(), parser);
+        errPump.start();
+
+        boolean writeOutput = capture && (options.isWriteOutput() || !options.isTeeCompare());
+        LineMatcher matcher = null;
+        if(capture && options.isTeeCompare() && t.reference != null)
+        {
+            matcher = new LineMatcher(new BufferedReader(new InputStreamReader(new FileInputStream(t.reference))));
+            t.println("Comparing outcome of test against " + t.reference.toPath().toString());
+        }
+        if(writeOutput) t.println("Writing outcome of test to " + t.output.toPath().toString());
+
+        try(BufferedReader consoleIn = new BufferedReader(new InputStreamReader(watch.count(p.getInputStream())));
+            BufferedWriter fileOut = writeOutput ? new BufferedWriter(new FileWriter(t.output)) : null)
+        {
+            //the matcher may reach its verdict early, but the rest of the output must still be drained
+            boolean matching = matcher != null;
+            String consoleLine;
+            try
+            {
+                while((consoleLine = consoleIn.readLine()) != null && !watch.isOutputTruncated())
+                {
+                    matching = emit(consoleLine, fileOut, matcher, matching);
+                }
+            } catch(IOException e)
+            {
+                //killing a process closes its pipes, so a trial stopped by the watchdog ends this way
+                if(watch.exceeded() == null) throw e;
+            }
+            //mark truncated output so that it can never pass as complete
+            if(watch.isOutputTruncated())
+                emit("[output truncated by the tester after " + watch.outputLimit() + " bytes]", fileOut, matcher, matching);
+            if(matcher != null) t.comparison = matcher.finish();
+        } finally
+        {
+            if(matcher != null) matcher.close();
+        }
+        watch.finalSample();
+
+        try
+        {
+            try
+            {
+                errPump.finish();
+            } catch(IOException e)
+            {
+                if(watch.exceeded() == null) throw e;
+            }
+            p.waitFor();
+        } catch(InterruptedException i)
+        {
+            RunControl.kill(p);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for trial " + t.key);
+        }
+    }
+
+    /* Waits for a trial whose standard output is redirected to its output file, or discarded if
+       capture is false, and whose standard error is redirected to its log. Output cut off by the
+       output limit is truncated to the limit and marked, as pumpTrial does, and so is a log that
+       passed the same limit. If parseLog is set, the log is read back afterwards for the valgrind
+       text report.
+     */
+    private static void awaitTrial(Trial t, Process p, ValgrindParser parser, boolean parseLog, boolean capture,
+                                   Watchdog.Watch watch) throws IOException
+    {
+        if(capture)
+        {
+            t.println("Writing outcome of test to " + t.output.toPath().toString());
+            watch.countFile(t.output.toPath());
+        }
+        File log = stderrLog(t.output);
+        watch.countErrorFile(log.toPath());
+        try
+        {
+            p.waitFor();
+        } catch(InterruptedException i)
+        {
+            RunControl.kill(p);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for trial " + t.key);
+        }
+        watch.finalSample();
+
+        if(capture && watch.isOutputTruncated()) truncate(t.output, watch.outputLimit(), "output");
+        //the log may have run past the limit while standard output was the one to stop the trial
+        if(watch.outputLimit() > 0 && log.length() > watch.outputLimit())
+        {
+            truncate(log, watch.outputLimit(), "standard error");
+            t.stderrTruncated = true;
+            t.println("WARNING: The standard error of trial " + t.key + " passed the output limit, so "
+                    + log.getPath() + " holds only its first " + watch.outputLimit() + " bytes.");
+        }
+        if(parseLog)
+        {
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(log))))
+            {
+                String line;
+                while((line = in.readLine()) != null)
+                {
+                    parser.line(line);
+                }
+            }
+        }
+    }
+
+    /* cuts a file written by a trial down to limit bytes and marks it as cut off */
+    private static void truncate(File file, long limit, String what) throws IOException
+    {
+        try(FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE))
+        {
+            out.truncate(limit);
+            out.position(limit);
+            out.write(ByteBuffer.wrap(("\n[" + what + " truncated by the tester after " + limit
+                    + " bytes]\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /* returns the file the standard error of the trial writing output is redirected to */
+    static File stderrLog(File output)
+    {
+        return new File(new File(output.getParentFile(), "stderr"), output.getName() + ".log");
+    }
+
+    /* writes one line of a trial's output and feeds it to the matcher; returns whether it is still matching */
+    private static boolean emit(String line, BufferedWriter fileOut, LineMatcher matcher, boolean matching)
+            throws IOException
+    {
+        if(fileOut != null)
+        {
+            fileOut.write(line);
+            fileOut.newLine();
+        }
+        return matching ? matcher.line(line) : matching;
+    }
+
+    public static boolean hasTest(String testName)
+    {
+        return dependencies.containsKey(testName);
+    }
+
+    /* Splits a command template into its valgrind prefix, the valgrind executable and its options,
+       and the command valgrind runs. The prefix is null if the template does not start with valgrind.
+     */
+    static String[] splitValgrind(String comm)
+    {
+        String trimmed = comm.trim();
+        int end = wordEnd(trimmed, 0);
+        if(!new File(trimmed.substring(0, end)).getName().equals("valgrind")) return new String[]{ null, comm };
+        //the rest of the template is kept as written, so its quoting is untouched
+        while(true)
+        {
+            int start = end;
+            while(start < trimmed.length() && Character.isWhitespace(trimmed.charAt(start))) start++;
+            if(start >= trimmed.length() || trimmed.charAt(start) != '-') break;
+            end = wordEnd(trimmed, start);
+        }
+        return new String[]{ trimmed.substring(0, end), trimmed.substring(end).trim() };
+    }
+
+    private static int wordEnd(String s, int i)
+    {
+        while(i < s.length() && !Character.isWhitespace(s.charAt(i))) i++;
+        return i;
     }
 
-    public static String getExecPath(String testExec)
+    /* returns the default command template, which runs the test executable under valgrind */
+    public static String defaultCommand()
     {
-        String sep = System.getProperty("file.separator");
-        return "scripts" + sep + "bin" + sep + testExec;
+        return DEFAULT_VALGRIND + " <exec> <input>";
     }
 }
@@ -0,0 +1,226 @@
+package com.cqwillia.tester;
+
+import com.cqwillia.tester.exceptions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/* A CommandTemplate is a command template compiled once into the argument list of every trial.
+   The template is split into arguments at unquoted whitespace, and each argument into literal
+   text and placeholders, so that applying it to a trial's files only concatenates.
+
+   Placeholders are written between angle brackets:
+     <input>   the trial's input file
+     <output>  the trial's output file
+     <ref>     the trial's reference file
+     <key>     the trial's integer key
+     <name>    the name of the trial's input file without its extension, or of its output file
+               if it has no input
+     <exec>    the test executable the run built, which for a batch run is the submission's own
+   Files are given relative to the directory the tester runs in, as they always have been.
+
+   Quoting follows the shell: text in single quotes is taken literally, angle brackets included;
+   text in double quotes keeps its whitespace but still has its placeholders replaced; outside
+   single quotes, a backslash takes the next character literally. A placeholder's value is always
+   part of a single argument, however many spaces the path holds.
+ */
+final class CommandTemplate
+{
+    enum Placeholder
+    {
+        INPUT, OUTPUT, REF, KEY, NAME, EXEC
+    }
+
+    private final String source;
+    private final File exec;
+    //each argument is a list of parts, each a literal String or a Placeholder
+    private final List<List<Object>> arguments;
+    private final EnumSet<Placeholder> used = EnumSet.noneOf(Placeholder.class);
+    private final Path base = Paths.get(System.getProperty("user.dir"));
+
+    private CommandTemplate(String source, File exec, List<List<Object>> arguments)
+    {
+        this.source = source;
+        this.exec = exec;
+        this.arguments = arguments;
+        for(List<Object> argument : arguments)
+        {
+            for(Object part : argument)
+            {
+                if(part instanceof Placeholder) used.add((Placeholder) part);
+            }
+        }
+    }
+
+    static CommandTemplate compile(String template) throws AngleExpressionException
+    {
+        return compile(template, null);
+    }
+
+    /* compiles a template whose <exec> placeholder names exec, or is empty if exec is null */
+    static CommandTemplate compile(String template, File exec) throws AngleExpressionException
+    {
+        List<List<Object>> arguments = new ArrayList<>();
+        List<Object> argument = null;
+        StringBuilder literal = new StringBuilder();
+        char quote = 0;
+
+        for(int i = 0; i < template.length(); i++)
+        {
+            char c = template.charAt(i);
+
+            if(quote == '\'')
+            {
+                if(c == '\'') quote = 0;
+                else literal.append(c);
+                continue;
+            }
+            if(c == '\\' && i + 1 < template.length())
+            {
+                if(argument == null) argument = new ArrayList<>();
+                literal.append(template.charAt(++i));
+                continue;
+            }
+            if(quote == 0 && Character.isWhitespace(c))
+            {
+                //the end of an argument
+                if(argument != null)
+                {
+                    flush(literal, argument);
+                    arguments.add(argument);
+                    argument = null;
+                }
+                continue;
+            }
+
+            if(argument == null) argument = new ArrayList<>();
+            if(c == '\'' && quote == 0 || c == '"' && quote == 0)
+                quote = c;
+            else if(c == '"' && quote == '"')
+                quote = 0;
+            else if(c == '>')
+                throw new UnpairedAngleException(UnpairedAngleException.UnpairType.CLOSING);
+            else if(c == '<')
+            {
+                int close = i + 1;
+                for(; close < template.length() && template.charAt(close) != '>'; close++)
+                {
+                    if(template.charAt(close) == '<') throw new NestedAngleException();
+                }
+                if(close >= template.length())
+                    throw new UnpairedAngleException(UnpairedAngleException.UnpairType.OPENING);
+                flush(literal, argument);
+                argument.add(placeholder(template.substring(i + 1, close)));
+                i = close;
+            }
+            else literal.append(c);
+        }
+        if(quote != 0) throw new AngleExpressionException("Unterminated quote in command string");
+        if(argument != null)
+        {
+            flush(literal, argument);
+            arguments.add(argument);
+        }
+        return new CommandTemplate(template, exec, arguments);
+    }
+
+    private static void flush(StringBuilder literal, List<Object> argument)
+    {
+        if(literal.length() == 0) return;
+        argument.add(literal.toString());
+        literal.setLength(0);
+    }
+
+    private static Placeholder placeholder(String name) throws InvalidContentsException
+    {
+        for(Placeholder p : Placeholder.values())
+        {
+            if(p.name().toLowerCase().equals(name)) return p;
+        }
+        throw new InvalidContentsException();
+    }
+
+    boolean uses(Placeholder p)
+    {
+        return used.contains(p);
+    }
+
+    @Override
+    public String toString()
+    {
+        return source;
+    }
+
+    /* returns the arguments of the trial with the given key and files, any of which may be null if unused */
+    List<String> apply(int key, File input, File output, File reference)
+    {
+        List<String> argv = new ArrayList<>(arguments.size());
+        StringBuilder arg = new StringBuilder();
+        for(List<Object> argument : arguments)
+        {
+            arg.setLength(0);
+            for(Object part : argument)
+            {
+                if(part instanceof String)
+                {
+                    arg.append((String) part);
+                    continue;
+                }
+                switch((Placeholder) part)
+                {
+                    case INPUT: arg.append(relative(input)); break;
+                    case OUTPUT: arg.append(relative(output)); break;
+                    case REF: arg.append(relative(reference)); break;
+                    case KEY: arg.append(key); break;
+                    case NAME: arg.append(name(input != null ? input : output)); break;
+                    case EXEC: arg.append(executable()); break;
+                }
+            }
+            argv.add(arg.toString());
+        }
+        return argv;
+    }
+
+    private String relative(File f)
+    {
+        if(f == null) return "";
+        return base.relativize(f.getAbsoluteFile().toPath().normalize()).toString();
+    }
+
+    /* a path without a separator would be looked up on the PATH, so one in this directory is marked as such */
+    private String executable()
+    {
+        String path = relative(exec);
+        if(path.isEmpty() || path.indexOf(File.separatorChar) >= 0) return path;
+        return "." + File.separator + path;
+    }
+
+    private static String name(File f)
+    {
+        if(f == null) return "";
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /* joins arguments into one line for display, quoting any that would not survive being split on spaces */
+    static String render(List<String> argv)
+    {
+        StringBuilder line = new StringBuilder();
+        for(String arg : argv)
+        {
+            if(line.length() > 0) line.append(' ');
+            boolean plain = !arg.isEmpty();
+            for(int i = 0; i < arg.length() && plain; i++)
+            {
+                char c = arg.charAt(i);
+                plain = !Character.isWhitespace(c) && "'\"\\<>".indexOf(c) < 0;
+            }
+            if(plain) line.append(arg);
+            else line.append('\'').append(arg.replace("'", "'\\''")).append('\'');
+        }
+        return line.toString();
+    }
+}
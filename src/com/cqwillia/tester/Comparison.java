@@ -0,0 +1,34 @@
+package com.cqwillia.tester;
+
+import java.util.List;
+
+/* The verdict of comparing one output file against its reference, along with the number of
+   non-empty lines read from each and the first line at which they were found to differ.
+   Line counts cover only what was read before the verdict was reached; a comparison that
+   stopped at its first difference, or was settled by an identical byte comparison, may
+   not have read either file to the end. A failed comparison may also hold the first hunks of
+   differences between the two files, once they have been found.
+ */
+final class Comparison
+{
+    final boolean passed;
+    final boolean identical;
+    final long outLines;
+    final long refLines;
+    final long firstDifference;
+    List<DiffEngine.Hunk> hunks;
+
+    Comparison(boolean passed, boolean identical, long outLines, long refLines, long firstDifference)
+    {
+        this.passed = passed;
+        this.identical = identical;
+        this.outLines = outLines;
+        this.refLines = refLines;
+        this.firstDifference = firstDifference;
+    }
+
+    static Comparison identical()
+    {
+        return new Comparison(true, true, -1, -1, 0);
+    }
+}
@@ -0,0 +1,130 @@
+package com.cqwillia.tester;
+
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author Cameron Williams
+ * @version 0.0.2
+ * @since 0.0.2
+ *
+ * <code>ConsoleSink</code> is the <code>PrintStream</code> behind the console window. Every
+ * complete line printed to it, from any thread, is handed to the asynchronous {@link SessionLog}
+ * and queued without locking. A Swing timer drains the queue at a fixed frame rate and
+ * appends each batch to the text area in a single call, so thousands of lines per second cost a
+ * few dozen event-thread updates rather than one per line.
+ */
+final class ConsoleSink extends PrintStream
+{
+    /**
+     * Interval between flushes of queued lines to the console window, roughly 30 frames
+     * per second.
+     */
+    private static final int FRAME_MILLIS = 33;
+
+    private final LineCollector collector;
+    private final JTextArea area;
+    private final Timer flusher;
+
+    ConsoleSink(JTextArea area, SessionLog log)
+    {
+        this(new LineCollector(log), area);
+    }
+
+    private ConsoleSink(LineCollector collector, JTextArea area)
+    {
+        //encode as the collector decodes, whatever the platform's default charset
+        super(collector, false, StandardCharsets.UTF_8);
+        this.collector = collector;
+        this.area = area;
+        flusher = new Timer(FRAME_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                flushToArea();
+            }
+        });
+        flusher.start();
+    }
+
+    /* runs on the event thread, moving every queued line into the text area at once */
+    private void flushToArea()
+    {
+        StringBuilder batch = new StringBuilder();
+        String line;
+        while((line = collector.pending.poll()) != null)
+        {
+            batch.append(line).append('\n');
+        }
+        if(batch.length() > 0) area.append(batch.toString());
+    }
+
+    @Override
+    public void close()
+    {
+        flusher.stop();
+        super.close();
+        flushToArea();
+    }
+
+    /* Splits the bytes written by the enclosing PrintStream into lines. Writes are already
+       serialised by the PrintStream's own lock, so the partial line needs no further guarding.
+     */
+    private static final class LineCollector extends OutputStream
+    {
+        private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        private final ByteArrayOutputStream partial = new ByteArrayOutputStream(256);
+        private final SessionLog log;
+
+        LineCollector(SessionLog log)
+        {
+            this.log = log;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            if(b == '\n') endLine();
+            else partial.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            int start = off;
+            for(int i = off; i < off + len; i++)
+            {
+                if(b[i] == '\n')
+                {
+                    partial.write(b, start, i - start);
+                    endLine();
+                    start = i + 1;
+                }
+            }
+            partial.write(b, start, off + len - start);
+        }
+
+        private void endLine() throws IOException
+        {
+            String line = partial.toString(StandardCharsets.UTF_8.name());
+            partial.reset();
+            if(line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+            pending.add(line);
+            log.append(line);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if(partial.size() > 0) endLine();
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* A CorpusIndex holds the integer keys of every file in one input, output or reference directory,
+   so that runs do not list the directory and parse every file name again. The directory is
+   scanned once, when its index is first asked for, and is then kept current by a WatchService:
+   a single daemon thread applies the files created and deleted in every indexed directory, and
+   rescans a directory whenever events for it have been lost.
+
+   Keys are kept in a TreeMap, so a directory's files always come back in key order. When several
+   files share a key, the one whose name sorts last is used, and the others are reported as being
+   overridden by it. Files the tester creates itself are added directly with add(), so that the
+   index never lags behind the tester's own writes.
+
+   Where a directory cannot be watched, its index rescans it every time it is asked for its keys.
+ */
+final class CorpusIndex
+{
+    private static final Map<Path, CorpusIndex> indexes = new ConcurrentHashMap<>();
+    private static WatchService watcher;
+    private static final Map<WatchKey, CorpusIndex> watched = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final TreeMap<Integer, TreeSet<String>> keys = new TreeMap<>();
+    private final TreeSet<String> unkeyed = new TreeSet<>();
+    private volatile WatchKey watchKey;
+
+    private CorpusIndex(Path dir)
+    {
+        this.dir = dir;
+    }
+
+    /* returns the index of dir, creating it and scanning dir if this is the first time it is used */
+    static CorpusIndex of(File dir)
+    {
+        Path path = dir.getAbsoluteFile().toPath().normalize();
+        CorpusIndex index = indexes.get(path);
+        if(index != null && index.watchKey != null && index.watchKey.isValid()) return index;
+
+        synchronized(CorpusIndex.class)
+        {
+            index = indexes.get(path);
+            if(index == null || index.watchKey == null || !index.watchKey.isValid())
+            {
+                index = new CorpusIndex(path);
+                index.watch();
+                index.rescan();
+                indexes.put(path, index);
+            }
+            return index;
+        }
+    }
+
+    /* indexes each directory in the background, so that the first run using them starts at once */
+    static void prefetch(final File... dirs)
+    {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                for(File dir : dirs)
+                {
+                    if(dir.isDirectory()) of(dir);
+                }
+            }
+        }, "corpus-prefetch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /* Returns the files of the directory by key, in key order, warning on console about files
+       without a key and about keys shared by several files. kind names the files in warnings.
+     */
+    synchronized Map<Integer, File> keys(PrintStream console, String kind)
+    {
+        if(watchKey == null || !watchKey.isValid()) rescan();
+
+        for(String name : unkeyed)
+        {
+            console.println("WARNING: File " + name + " contains no digits in the filename, and " +
+                    "thus cannot be coded. It will not be added to test file commands.");
+        }
+        Map<Integer, File> files = new TreeMap<>();
+        for(Map.Entry<Integer, TreeSet<String>> entry : keys.entrySet())
+        {
+            TreeSet<String> names = entry.getValue();
+            String chosen = names.last();
+            for(String name : names.headSet(chosen))
+            {
+                console.println("WARNING: " + kind + " file " + chosen + " represents the addition of a duplicate"
+                        + " key and will override " + kind.toLowerCase() + " file " + name + ".");
+            }
+            files.put(entry.getKey(), dir.resolve(chosen).toFile());
+        }
+        return files;
+    }
+
+    /* records a file the tester has just created in this directory */
+    synchronized void add(File f)
+    {
+        put(f.getName());
+    }
+
+    private void put(String name)
+    {
+        Integer key = TesterLogic.readKey(new File(name));
+        if(key == null)
+        {
+            unkeyed.add(name);
+            return;
+        }
+        TreeSet<String> names = keys.get(key);
+        if(names == null)
+        {
+            names = new TreeSet<>();
+            keys.put(key, names);
+        }
+        names.add(name);
+    }
+
+    private void remove(String name)
+    {
+        Integer key = TesterLogic.readKey(new File(name));
+        if(key == null)
+        {
+            unkeyed.remove(name);
+            return;
+        }
+        TreeSet<String> names = keys.get(key);
+        if(names == null) return;
+        names.remove(name);
+        if(names.isEmpty()) keys.remove(key);
+    }
+
+    private synchronized void rescan()
+    {
+        keys.clear();
+        unkeyed.clear();
+        File[] files = dir.toFile().listFiles();
+        if(files == null) return;
+        for(File f : files)
+        {
+            if(f.isFile()) put(f.getName()); //disregard subdirectories
+        }
+    }
+
+    private synchronized void apply(WatchEvent<?> event)
+    {
+        if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+        {
+            rescan();
+            return;
+        }
+        String name = event.context().toString();
+        //a file replaced in place is deleted and created again, and may be back before its events arrive
+        if(Files.isRegularFile(dir.resolve(name))) put(name);
+        else remove(name);
+    }
+
+    /* registers this directory with the shared watch service, starting it on first use */
+    private void watch()
+    {
+        try
+        {
+            synchronized(CorpusIndex.class)
+            {
+                if(watcher == null)
+                {
+                    watcher = FileSystems.getDefault().newWatchService();
+                    Thread t = new Thread(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            pump();
+                        }
+                    }, "corpus-watcher");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            }
+            watchKey = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watched.put(watchKey, this);
+        } catch(IOException | UnsupportedOperationException e)
+        {
+            //the index falls back on rescanning the directory every time it is used
+            watchKey = null;
+        }
+    }
+
+    private static void pump()
+    {
+        while(true)
+        {
+            WatchKey key;
+            try
+            {
+                key = watcher.take();
+            } catch(InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+            CorpusIndex index = watched.get(key);
+            for(WatchEvent<?> event : key.pollEvents())
+            {
+                if(index != null) index.apply(event);
+            }
+            //a key that can no longer be reset belongs to a directory that has gone away
+            if(!key.reset())
+            {
+                watched.remove(key);
+                if(index != null) indexes.remove(index.dir, index);
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/* DiffEngine finds the first few differing hunks between a failed trial's output and its reference,
+   in memory that does not grow with the size of the files.
+
+   The part of the two files that is byte for byte identical is skipped through memory-mapped
+   windows, only counting its lines, so a difference deep in a multi-gigabyte output is reached at
+   close to disk speed. From there both files are streamed a line at a time. Lines are held as a
+   64-bit hash and a short preview rather than in full, so even a single enormous line costs only
+   its preview. Whenever the files stop agreeing, a window of up to WINDOW lines of each is diffed
+   with Myers' algorithm, using the linear-space refinement that recursively splits the edit graph
+   at a middle snake. The first hunk of that script is reported, and streaming resumes from the end
+   of the hunk, where the files agree again. A run of differences longer than the window ends the
+   report, since past it the files can no longer be aligned.
+
+   Lines end at '\n', '\r' or "\r\n", as they do for the line comparison. Hunks are in the unified
+   diff format, from the reference to the output, with CONTEXT lines of context around each.
+ */
+final class DiffEngine
+{
+    /* the number of hunks reported for each failed trial */
+    static final int DEFAULT_HUNKS = 3;
+
+    private static final int CONTEXT = 3;
+    private static final int WINDOW = 4096;
+    private static final int PREVIEW = 200;
+    private static final int MAX_HUNK_LINES = 40;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    /* One hunk of differences. Line numbers start at 1; lines holds the hunk's lines, each marked
+       with ' ' for context, '-' for a reference line and '+' for an output line, of which only the
+       first MAX_HUNK_LINES are kept. A hunk is unbounded when the files still disagree at the end
+       of the window; the files cannot then be realigned, so it is the last hunk reported.
+     */
+    static final class Hunk
+    {
+        final long refStart;
+        final long outStart;
+        int refCount;
+        int outCount;
+        final List<String> lines = new ArrayList<>();
+        int omitted;
+        boolean unbounded;
+
+        private Hunk(long refStart, long outStart)
+        {
+            this.refStart = refStart;
+            this.outStart = outStart;
+        }
+
+        private void add(char mark, Line line)
+        {
+            if(mark != '+') refCount++;
+            if(mark != '-') outCount++;
+            if(lines.size() < MAX_HUNK_LINES) lines.add(mark + line.text);
+            else omitted++;
+        }
+
+        String header()
+        {
+            return "@@ -" + refStart + "," + refCount + " +" + outStart + "," + outCount + " @@";
+        }
+    }
+
+    private static final class Line
+    {
+        final long hash;
+        final String text;
+
+        Line(long hash, String text)
+        {
+            this.hash = hash;
+            this.text = text;
+        }
+    }
+
+    private DiffEngine() {}
+
+    /* returns the first maxHunks hunks of differences between out and ref, empty if they have none */
+    static List<Hunk> diff(File out, File ref, int maxHunks) throws IOException
+    {
+        long[] prefix = commonPrefix(out, ref);
+        try(FileInputStream outIn = new FileInputStream(out); FileInputStream refIn = new FileInputStream(ref))
+        {
+            outIn.getChannel().position(prefix[0]);
+            refIn.getChannel().position(prefix[0]);
+            Side o = new Side(outIn, prefix[1]);
+            Side r = new Side(refIn, prefix[1]);
+            List<Hunk> hunks = new ArrayList<>();
+            ArrayDeque<Line> context = new ArrayDeque<>();
+            while(hunks.size() < maxHunks)
+            {
+                //skip the lines the files agree on, remembering the last few as context
+                Line a, b;
+                while((a = r.peek()) != null && (b = o.peek()) != null && a.hash == b.hash)
+                {
+                    context.addLast(r.next());
+                    o.next();
+                    if(context.size() > CONTEXT) context.removeFirst();
+                }
+                if(r.peek() == null && o.peek() == null) break;
+                Hunk h = hunk(r, o, context);
+                hunks.add(h);
+                if(h.unbounded) break;
+                context.clear();
+            }
+            return hunks;
+        }
+    }
+
+    /* diffs a window of each side, starting at the lines where they disagree, and consumes its first hunk */
+    private static Hunk hunk(Side r, Side o, ArrayDeque<Line> context) throws IOException
+    {
+        List<Line> a = r.window();
+        List<Line> b = o.window();
+        boolean complete = r.exhausted() && o.exhausted();
+        Hunk h = new Hunk(r.number - context.size() + 1, o.number - context.size() + 1);
+        for(Line c : context)
+        {
+            h.add(' ', c);
+        }
+
+        char[] ops = Myers.script(a, b);
+        //the hunk ends where the files agree for long enough to start a new hunk, or at the end of the window
+        int end = ops.length;
+        int run = 0;
+        for(int i = 0; i < ops.length; i++)
+        {
+            if(ops[i] != ' ')
+            {
+                run = 0;
+                continue;
+            }
+            if(++run > 2 * CONTEXT)
+            {
+                end = i - run + 1;
+                break;
+            }
+        }
+        if(end == ops.length)
+        {
+            //trailing agreement at the very end of both files is context
+            if(complete) while(end > 0 && ops[end-1] == ' ') end--;
+            else h.unbounded = true;
+        }
+
+        int ai = 0, bi = 0;
+        for(int i = 0; i < end; i++)
+        {
+            if(ops[i] == '-') h.add('-', a.get(ai++));
+            else if(ops[i] == '+') h.add('+', b.get(bi++));
+            else
+            {
+                h.add(' ', a.get(ai++));
+                bi++;
+            }
+        }
+        r.consume(ai);
+        o.consume(bi);
+        //trailing context is only looked at; the lines are skipped again before the next hunk
+        for(int i = end; i < ops.length && i < end + CONTEXT && ops[i] == ' '; i++)
+        {
+            h.add(' ', a.get(ai++));
+        }
+        return h;
+    }
+
+    /* Returns the offset and number of the line from which the files are read, CONTEXT lines before
+       the line holding their first differing byte. Lines before it are identical in both files.
+     */
+    private static long[] commonPrefix(File out, File ref) throws IOException
+    {
+        try(FileChannel ca = FileChannel.open(out.toPath(), StandardOpenOption.READ);
+            FileChannel cb = FileChannel.open(ref.toPath(), StandardOpenOption.READ))
+        {
+            long size = Math.min(ca.size(), cb.size());
+            //the offsets just after the last CONTEXT + 1 newlines seen, as a ring
+            long[] starts = new long[CONTEXT + 1];
+            long lines = 0;
+            byte[] chunk = new byte[65536];
+            byte prev = 0;
+            for(long pos = 0; pos < size; pos += MAP_WINDOW)
+            {
+                long len = Math.min(MAP_WINDOW, size - pos);
+                MappedByteBuffer ma = ca.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MappedByteBuffer mb = cb.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                int mismatch = ma.mismatch(mb);
+                int same = mismatch < 0 ? (int) len : mismatch;
+                for(int from = 0; from < same; from += chunk.length)
+                {
+                    int n = Math.min(chunk.length, same - from);
+                    ma.get(from, chunk, 0, n);
+                    for(int i = 0; i < n; i++)
+                    {
+                        byte c = chunk[i];
+                        if(c == '\r' || c == '\n')
+                        {
+                            //the '\n' of a "\r\n" only moves the start of the line the '\r' ended
+                            if(c == '\r' || prev != '\r') lines++;
+                            starts[(int) (lines % starts.length)] = pos + from + i + 1;
+                        }
+                        prev = c;
+                    }
+                }
+                if(mismatch >= 0) break;
+            }
+            //the line holding the difference is partly shared, so reading starts CONTEXT lines before it
+            long from = Math.max(0, lines - CONTEXT);
+            return new long[]{ from == 0 ? 0 : starts[(int) (from % starts.length)], from };
+        }
+    }
+
+    /* one file being streamed a line at a time, with the lines read ahead of the diff buffered */
+    private static final class Side
+    {
+        private final Reader in;
+        private final char[] buf = new char[65536];
+        private int pos;
+        private int len;
+        private boolean eof;
+        private boolean skipLF;
+        private final ArrayDeque<Line> ahead = new ArrayDeque<>();
+        //the number of the last line consumed
+        long number;
+
+        Side(InputStream in, long number)
+        {
+            this.in = new InputStreamReader(in);
+            this.number = number;
+        }
+
+        Line peek() throws IOException
+        {
+            if(ahead.isEmpty())
+            {
+                Line l = read();
+                if(l == null) return null;
+                ahead.addLast(l);
+            }
+            return ahead.peekFirst();
+        }
+
+        Line next() throws IOException
+        {
+            Line l = peek();
+            if(l != null)
+            {
+                ahead.removeFirst();
+                number++;
+            }
+            return l;
+        }
+
+        /* returns up to WINDOW lines from the current line on, without consuming them */
+        List<Line> window() throws IOException
+        {
+            while(ahead.size() < WINDOW)
+            {
+                Line l = read();
+                if(l == null) break;
+                ahead.addLast(l);
+            }
+            return new ArrayList<>(ahead).subList(0, Math.min(WINDOW, ahead.size()));
+        }
+
+        /* whether the last window holds every remaining line */
+        boolean exhausted() throws IOException
+        {
+            return ahead.size() <= WINDOW && !fill();
+        }
+
+        void consume(int n)
+        {
+            for(int i = 0; i < n; i++)
+            {
+                ahead.removeFirst();
+            }
+            number += n;
+        }
+
+        /* Reads a line, hashing all of it with 64-bit FNV-1a but keeping only its first PREVIEW
+           characters. Lines end at '\n', '\r' or "\r\n", as they do for BufferedReader.
+         */
+        private Line read() throws IOException
+        {
+            long hash = 0xcbf29ce484222325L;
+            StringBuilder text = new StringBuilder();
+            boolean any = false;
+            while(fill())
+            {
+                char c = buf[pos++];
+                if(skipLF)
+                {
+                    skipLF = false;
+                    if(c == '\n') continue;
+                }
+                any = true;
+                if(c == '\n') break;
+                if(c == '\r')
+                {
+                    skipLF = true;
+                    break;
+                }
+                hash = (hash ^ c) * 0x100000001b3L;
+                if(text.length() < PREVIEW) text.append(c);
+                else if(text.length() == PREVIEW) text.append("...");
+            }
+            if(!any) return null;
+            return new Line(hash, text.toString());
+        }
+
+        /* returns whether there is a character left to read, reading more if needed */
+        private boolean fill() throws IOException
+        {
+            while(pos >= len && !eof)
+            {
+                len = in.read(buf);
+                pos = 0;
+                if(len < 0)
+                {
+                    eof = true;
+                    len = 0;
+                }
+            }
+            return pos < len;
+        }
+    }
+
+    /* Myers' O(ND) difference algorithm in linear space, over the hashes of two windows of lines */
+    private static final class Myers
+    {
+        private final long[] a;
+        private final long[] b;
+        private final boolean[] aChanged;
+        private final boolean[] bChanged;
+        private final int[] vf;
+        private final int[] vb;
+
+        private Myers(long[] a, long[] b)
+        {
+            this.a = a;
+            this.b = b;
+            aChanged = new boolean[a.length];
+            bChanged = new boolean[b.length];
+            int max = (a.length + b.length + 1) / 2;
+            vf = new int[2 * max + 3];
+            vb = new int[2 * max + 3];
+        }
+
+        /* returns the edit script from a to b: ' ' keeps a line, '-' deletes one of a, '+' inserts one of b */
+        static char[] script(List<Line> la, List<Line> lb)
+        {
+            long[] a = new long[la.size()];
+            long[] b = new long[lb.size()];
+            for(int i = 0; i < a.length; i++) a[i] = la.get(i).hash;
+            for(int i = 0; i < b.length; i++) b[i] = lb.get(i).hash;
+            Myers m = new Myers(a, b);
+            m.compare(0, a.length, 0, b.length);
+
+            StringBuilder ops = new StringBuilder();
+            int i = 0, j = 0;
+            while(i < a.length || j < b.length)
+            {
+                if(i < a.length && m.aChanged[i])
+                {
+                    ops.append('-');
+                    i++;
+                }
+                else if(j < b.length && m.bChanged[j])
+                {
+                    ops.append('+');
+                    j++;
+                }
+                else
+                {
+                    ops.append(' ');
+                    i++;
+                    j++;
+                }
+            }
+            char[] result = new char[ops.length()];
+            ops.getChars(0, ops.length(), result, 0);
+            return result;
+        }
+
+        private void compare(int aLo, int aHi, int bLo, int bHi)
+        {
+            while(aLo < aHi && bLo < bHi && a[aLo] == b[bLo])
+            {
+                aLo++;
+                bLo++;
+            }
+            while(aLo < aHi && bLo < bHi && a[aHi-1] == b[bHi-1])
+            {
+                aHi--;
+                bHi--;
+            }
+            if(aLo == aHi)
+            {
+                for(int j = bLo; j < bHi; j++) bChanged[j] = true;
+                return;
+            }
+            if(bLo == bHi)
+            {
+                for(int i = aLo; i < aHi; i++) aChanged[i] = true;
+                return;
+            }
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, snake[0], bLo, snake[1]);
+            compare(snake[2], aHi, snake[3], bHi);
+        }
+
+        /* returns the start and end, as {x, y, u, v}, of the middle snake of an optimal path */
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi)
+        {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int max = (n + m + 1) / 2;
+            int off = max + 1;
+            vf[off + 1] = 0;
+            vb[off + 1] = 0;
+            for(int d = 0; d <= max; d++)
+            {
+                for(int k = -d; k <= d; k += 2)
+                {
+                    int x = k == -d || k != d && vf[off + k - 1] < vf[off + k + 1]
+                            ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x, y0 = y;
+                    while(x < n && y < m && a[aLo + x] == b[bLo + y])
+                    {
+                        x++;
+                        y++;
+                    }
+                    vf[off + k] = x;
+                    if(odd && k >= delta - (d - 1) && k <= delta + (d - 1) && x + vb[off + delta - k] >= n)
+                        return new int[]{ aLo + x0, bLo + y0, aLo + x, bLo + y };
+                }
+                for(int k = -d; k <= d; k += 2)
+                {
+                    int x = k == -d || k != d && vb[off + k - 1] < vb[off + k + 1]
+                            ? vb[off + k + 1] : vb[off + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x, y0 = y;
+                    while(x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y])
+                    {
+                        x++;
+                        y++;
+                    }
+                    vb[off + k] = x;
+                    if(!odd && delta - k >= -d && delta - k <= d && x + vf[off + delta - k] >= n)
+                        return new int[]{ aHi - x, bHi - y, aHi - x0, bHi - y0 };
+                }
+            }
+            throw new IllegalStateException("No middle snake found");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.cqwillia.tester;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/* Helpers for the SHA-256 content hashes used to decide whether staged files have changed. */
+final class Hashes
+{
+    private Hashes() {}
+
+    static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e)
+        {
+            //every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void update(MessageDigest digest, Path file) throws IOException
+    {
+        byte[] buffer = new byte[64 * 1024];
+        try(InputStream in = Files.newInputStream(file))
+        {
+            int n;
+            while((n = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+
+    static String of(Path file) throws IOException
+    {
+        MessageDigest digest = sha256();
+        update(digest, file);
+        return hex(digest.digest());
+    }
+
+    static String of(byte[] content)
+    {
+        return hex(sha256().digest(content));
+    }
+
+    static String hex(byte[] bytes)
+    {
+        StringBuilder s = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes)
+        {
+            s.append(Character.forDigit((b >> 4) & 0xf, 16));
+            s.append(Character.forDigit(b & 0xf, 16));
+        }
+        return s.toString();
+    }
+}
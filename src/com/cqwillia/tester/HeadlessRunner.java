@@ -0,0 +1,408 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/* HeadlessRunner builds and runs a test without creating the Swing interface, for grading servers
+   and batch scripts. The seven preferences and the command template come from a config file in
+   the format of d.PREFERENCES (keys may carry the "default." or "saved." prefix, or none), from
+   command line arguments, or both, with arguments taking precedence:
+
+     java -cp src com.cqwillia.tester.TestRunner --headless [--config <file>]
+          [--workingDirectory <dir>] [--homeworkNumber <hw>] [--testName <test>]
+          [--inputDirectory <dir>] [--outputDirectory <dir>] [--referenceDirectory <dir>]
+          [--testPath <file>] [--command <template>] [--jobs <n>] [--tee] [--no-output-files]
+          [--piped] [--no-cache] [--no-valgrind-xml] [--valgrind <inline|failures|sample|all|none>]
+          [--valgrind-sample <n>] [--timeout <s>] [--cpu-limit <s>] [--output-limit <MB>]
+          [--memory-limit <MB>] [--diff-hunks <n>] [--batch <root>] [--watch]
+
+   No limit is enforced unless it is given; a limit of 0 turns it off.
+
+   Progress goes to standard error. A JSON summary of the run is printed to standard output, and
+   the exit code reports the outcome; see the EXIT_ constants.
+   With --batch, every directory under root is graded as a separate submission by BatchGrader, and
+   a table of per-submission results is printed instead of the JSON summary.
+   With --watch, the runner keeps running after the first run and re-runs the trials affected by
+   each change to the test's sources, inputs or references, printing a JSON summary after each.
+ */
+final class HeadlessRunner
+{
+    static final int EXIT_SUCCESS = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_BUILD_FAILED = 2;
+    static final int EXIT_USAGE = 3;
+    static final int EXIT_RUN_ERROR = 4;
+    //nothing failed, but no trial had a reference to be compared against either
+    static final int EXIT_UNCHECKED = 5;
+
+    private HeadlessRunner() {}
+
+    static int main(String[] args)
+    {
+        return run(args, System.err, System.out, new RunControl());
+    }
+
+    /* runs the invocation args, printing progress to console and the summary to out; cancelling
+       control kills the build or the trials in flight */
+    static int run(String[] args, PrintStream console, PrintStream out, RunControl control)
+    {
+        String[] prefs = new String[7];
+        String[] defaults = new String[7];
+        for(int i = 0; i < 7; i++)
+        {
+            prefs[i] = "";
+            defaults[i] = "";
+        }
+        String command = null;
+        String batch = null;
+        boolean watch = false;
+        RunOptions options = new RunOptions();
+
+        //the preferences file used by the interface is read by default, unless another config is named
+        String config = null;
+        for(int i = 0; i < args.length - 1; i++)
+        {
+            if(args[i].equals("--config")) config = args[i+1];
+        }
+        try
+        {
+            if(config != null || new File("d.PREFERENCES").isFile())
+                command = readConfig(config == null ? "d.PREFERENCES" : config, defaults, prefs);
+        } catch(IOException e)
+        {
+            console.println("ERROR: Failed to read config file " + config + ": " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        try
+        {
+            for(int i = 0; i < args.length; i++)
+            {
+                String arg = args[i];
+                if(arg.equals("--headless")) continue;
+                if(arg.equals("--tee")) { options.setTeeCompare(true); continue; }
+                if(arg.equals("--no-output-files")) { options.setWriteOutput(false); continue; }
+                if(arg.equals("--piped")) { options.setDirectCapture(false); continue; }
+                if(arg.equals("--no-cache")) { options.setResultCache(false); continue; }
+                if(arg.equals("--no-valgrind-xml")) { options.setValgrindXml(false); continue; }
+                if(arg.equals("--watch")) { watch = true; continue; }
+                if(!arg.startsWith("--") || i + 1 >= args.length)
+                {
+                    console.println("ERROR: Unrecognised or incomplete argument " + arg + ".");
+                    return EXIT_USAGE;
+                }
+
+                String name = arg.substring(2);
+                String value = args[++i];
+                if(name.equals("config")) continue;
+                else if(name.equals("command")) command = value;
+                else if(name.equals("jobs")) options.setConcurrency(Integer.parseInt(value));
+                else if(name.equals("batch")) batch = value;
+                else if(name.equals("valgrind-sample")) options.setValgrindSample(Integer.parseInt(value));
+                else if(name.equals("diff-hunks")) options.setDiffHunks(Integer.parseInt(value));
+                else if(name.equals("timeout")) options.setTimeoutMillis(Long.parseLong(value) * 1000);
+                else if(name.equals("cpu-limit")) options.setCpuLimitMillis(Long.parseLong(value) * 1000);
+                else if(name.equals("output-limit")) options.setOutputLimitBytes(Long.parseLong(value) << 20);
+                else if(name.equals("memory-limit")) options.setMemoryLimitBytes(Long.parseLong(value) << 20);
+                else if(name.equals("valgrind"))
+                {
+                    try
+                    {
+                        options.setValgrindMode(RunOptions.ValgrindMode.valueOf(value.toUpperCase()));
+                    } catch(IllegalArgumentException e)
+                    {
+                        console.println("ERROR: Unknown valgrind mode " + value + ".");
+                        return EXIT_USAGE;
+                    }
+                }
+                else if(Tester.prefIndex(name) >= 0) prefs[Tester.prefIndex(name)] = value;
+                else
+                {
+                    console.println("ERROR: Unrecognised argument " + arg + ".");
+                    return EXIT_USAGE;
+                }
+            }
+        } catch(NumberFormatException n)
+        {
+            console.println("ERROR: --jobs, --valgrind-sample, --diff-hunks and the limits require a number.");
+            return EXIT_USAGE;
+        }
+
+        //fall back on the defaults for anything not given, then canonise paths as the interface does
+        for(int i = 0; i < 7; i++)
+        {
+            if(prefs[i].isEmpty()) prefs[i] = defaults[i];
+            //in batch mode each submission directory stands in for the working directory
+            if(i == Tester.I_WDIR && batch != null) prefs[i] = batch;
+            if(prefs[i].isEmpty() && i != Tester.I_HWNUM)
+            {
+                console.println("ERROR: No value given for " + Tester.PREF_NAMES[i] + ".");
+                return EXIT_USAGE;
+            }
+        }
+        if(!CommandBuilder.hasTest(prefs[Tester.I_TESTNAME]))
+        {
+            console.println("ERROR: Unknown test " + prefs[Tester.I_TESTNAME] + ".");
+            return EXIT_USAGE;
+        }
+        try
+        {
+            for(int i : new int[]{ Tester.I_WDIR, Tester.I_INDIR, Tester.I_OUTDIR, Tester.I_REFDIR, Tester.I_TESTPATH })
+            {
+                prefs[i] = new File(prefs[i]).getCanonicalPath();
+            }
+        } catch(IOException e)
+        {
+            console.println("ERROR: One or more paths cannot be canonized.");
+            return EXIT_USAGE;
+        }
+        if(command == null) command = CommandBuilder.defaultCommand();
+
+        if(batch != null)
+        {
+            long start = System.nanoTime();
+            List<BatchGrader.Row> rows = BatchGrader.grade(new File(batch), prefs, command, options, console);
+            BatchGrader.printTable(rows, out);
+            int passing = 0;
+            boolean checked = true;
+            for(BatchGrader.Row r : rows)
+            {
+                if(r.isSuccessful()) passing++;
+                if(r.report != null && !r.report.isChecked()) checked = false;
+            }
+            console.println("Graded " + rows.size() + " submissions in " + (System.nanoTime() - start) / 1000000
+                    + " ms; " + passing + " passed every trial.");
+            if(passing < rows.size()) return EXIT_FAILED;
+            return checked ? EXIT_SUCCESS : EXIT_UNCHECKED;
+        }
+
+        int exit = buildAndRun(prefs, command, options, control, console, out);
+        if(watch) return watch(prefs, command, options, console, out);
+        return exit;
+    }
+
+    private static int buildAndRun(String[] prefs, String command, RunOptions options, RunControl control,
+                                   PrintStream console, PrintStream out)
+    {
+        if(!CommandBuilder.build(prefs, options, control, console))
+        {
+            out.println(summary(prefs, null, false));
+            return EXIT_BUILD_FAILED;
+        }
+        RunReport report = CommandBuilder.run(prefs, command, options, control, console);
+        out.println(summary(prefs, report, true));
+        if(report == null) return EXIT_RUN_ERROR;
+        if(!report.isSuccessful()) return EXIT_FAILED;
+        if(!report.isChecked())
+        {
+            console.println("WARNING: No trial had a reference file to be compared against.");
+            return EXIT_UNCHECKED;
+        }
+        return EXIT_SUCCESS;
+    }
+
+    /* re-runs the affected trials on every change until the process is interrupted */
+    private static int watch(final String[] prefs, final String command, final RunOptions options,
+                             final PrintStream console, final PrintStream out)
+    {
+        SourceWatcher watcher;
+        try
+        {
+            watcher = new SourceWatcher(prefs, new SourceWatcher.Listener() {
+                @Override
+                public boolean changed(Set<Integer> keys)
+                {
+                    RunOptions o = options.copy();
+                    o.setTrialKeys(keys);
+                    buildAndRun(prefs, command, o, new RunControl(), console, out);
+                    return true;
+                }
+            }, console);
+        } catch(IOException e)
+        {
+            console.println("ERROR: Failed to watch sources for changes: " + e.getMessage());
+            return EXIT_RUN_ERROR;
+        }
+
+        //the watcher runs the trials on its own thread, so this one only waits to be interrupted
+        try
+        {
+            new CountDownLatch(1).await();
+        } catch(InterruptedException i)
+        {
+            Thread.currentThread().interrupt();
+        } finally
+        {
+            try
+            {
+                watcher.close();
+            } catch(IOException e)
+            {
+                console.println("WARNING: Failed to stop watching sources: " + e.getMessage());
+            }
+        }
+        return EXIT_RUN_ERROR;
+    }
+
+    /* reads preferences from a config file into defaults and prefs; returns its command, if it has one */
+    static String readConfig(String path, String[] defaults, String[] prefs) throws IOException
+    {
+        String command = null;
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(path),
+                StandardCharsets.UTF_8)))
+        {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                int eq = line.indexOf('=');
+                if(eq < 0 || eq == line.length() - 1) continue;
+                String key = line.substring(0, eq).trim();
+                String value = line.substring(eq + 1).trim();
+
+                String[] target = prefs;
+                if(key.startsWith("default."))
+                {
+                    target = defaults;
+                    key = key.substring("default.".length());
+                }
+                else if(key.startsWith("saved."))
+                    key = key.substring("saved.".length());
+
+                if(key.equals("command")) command = value;
+                else if(Tester.prefIndex(key) >= 0) target[Tester.prefIndex(key)] = value;
+            }
+        }
+        return command;
+    }
+
+    static String summary(String[] prefs, RunReport report, boolean built)
+    {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"test\":").append(quote(prefs[Tester.I_TESTNAME]));
+        json.append(",\"build\":").append(quote(built ? "ok" : "failed"));
+        if(report != null)
+        {
+            json.append(",\"cancelled\":").append(report.isCancelled());
+            json.append(",\"total\":").append(report.total());
+            json.append(",\"passed\":").append(report.count(RunReport.Status.PASSED));
+            json.append(",\"failed\":").append(report.count(RunReport.Status.FAILED));
+            json.append(",\"unchecked\":").append(report.count(RunReport.Status.UNCHECKED));
+            json.append(",\"valgrindErrors\":").append(report.valgrindErrors());
+            json.append(",\"limitsExceeded\":").append(report.limitsExceeded());
+            json.append(",\"phasesMs\":{");
+            boolean firstPhase = true;
+            for(Map.Entry<String, Long> phase : report.phases.entrySet())
+            {
+                if(!firstPhase) json.append(',');
+                firstPhase = false;
+                json.append(quote(phase.getKey())).append(':').append(phase.getValue() / 1000000);
+            }
+            json.append('}');
+            json.append(",\"trials\":[");
+            boolean first = true;
+            for(Map.Entry<Integer, Trial> entry : report.trials.entrySet())
+            {
+                Trial t = entry.getValue();
+                Comparison c = report.comparisons.get(entry.getKey());
+                if(!first) json.append(',');
+                first = false;
+                json.append("{\"key\":").append(t.key);
+                json.append(",\"status\":").append(quote(report.status(t.key).name()));
+                json.append(",\"valgrindError\":").append(t.valgrindError);
+                json.append(",\"wallMs\":").append(t.wallNanos / 1000000);
+                json.append(",\"cpuMs\":").append(measured(t.cpuMillis));
+                json.append(",\"peakRssBytes\":").append(measured(t.peakRssBytes));
+                json.append(",\"cached\":").append(t.cached);
+                if(t.limitExceeded != null) json.append(",\"limitExceeded\":").append(quote(t.limitExceeded));
+                if(t.stderrTruncated) json.append(",\"stderrTruncated\":true");
+                if(t.memcheck != null) json.append(",\"memcheck\":").append(memcheck(t.memcheck));
+                if(c != null && !c.passed) json.append(",\"firstDifference\":").append(c.firstDifference);
+                if(c != null && c.hunks != null) json.append(",\"hunks\":").append(hunks(c.hunks));
+                json.append(",\"output\":").append(quote(t.output.getPath()));
+                json.append('}');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    private static String hunks(List<DiffEngine.Hunk> hunks)
+    {
+        StringBuilder json = new StringBuilder("[");
+        for(int i = 0; i < hunks.size(); i++)
+        {
+            DiffEngine.Hunk h = hunks.get(i);
+            if(i > 0) json.append(',');
+            json.append("{\"refStart\":").append(h.refStart);
+            json.append(",\"refLines\":").append(h.refCount);
+            json.append(",\"outStart\":").append(h.outStart);
+            json.append(",\"outLines\":").append(h.outCount);
+            if(h.omitted > 0) json.append(",\"omittedLines\":").append(h.omitted);
+            if(h.unbounded) json.append(",\"unbounded\":true");
+            json.append(",\"lines\":[");
+            for(int j = 0; j < h.lines.size(); j++)
+            {
+                if(j > 0) json.append(',');
+                json.append(quote(h.lines.get(j)));
+            }
+            json.append("]}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static String memcheck(MemcheckReport m)
+    {
+        StringBuilder json = new StringBuilder("{\"errors\":").append(m.errorCount());
+        json.append(",\"kinds\":{");
+        boolean first = true;
+        for(Map.Entry<String, Integer> kind : m.kinds.entrySet())
+        {
+            if(!first) json.append(',');
+            first = false;
+            json.append(quote(kind.getKey())).append(':').append(kind.getValue());
+        }
+        json.append("},\"definitelyLost\":").append(m.definitelyLost);
+        json.append(",\"indirectlyLost\":").append(m.indirectlyLost);
+        json.append(",\"possiblyLost\":").append(m.possiblyLost);
+        json.append(",\"errorDetails\":[");
+        for(int i = 0; i < m.errors.size(); i++)
+        {
+            MemcheckReport.Error e = m.errors.get(i);
+            if(i > 0) json.append(',');
+            json.append("{\"kind\":").append(quote(e.kind));
+            json.append(",\"what\":").append(quote(e.what == null ? "" : e.what));
+            if(e.bytes > 0) json.append(",\"bytes\":").append(e.bytes);
+            json.append(",\"stack\":[");
+            for(int j = 0; j < e.stack.size(); j++)
+            {
+                if(j > 0) json.append(',');
+                json.append(quote(e.stack.get(j)));
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /* returns a measurement the watchdog took, or null where it took none */
+    private static String measured(long value)
+    {
+        return value < 0 ? "null" : Long.toString(value);
+    }
+
+    static String quote(String s)
+    {
+        StringBuilder q = new StringBuilder("\"");
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\') q.append('\\').append(c);
+            else if(c < 0x20) q.append(String.format("\\u%04x", (int) c));
+            else q.append(c);
+        }
+        return q.append('"').toString();
+    }
+}
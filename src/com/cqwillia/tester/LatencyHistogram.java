@@ -0,0 +1,65 @@
+package com.cqwillia.tester;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* LatencyHistogram counts durations in buckets whose bounds double, from about a microsecond up to
+   several days, so that recording is a handful of atomic increments from any thread and memory
+   does not grow with the number of durations. Percentiles are read from the bucket bounds, so they
+   are accurate to within a factor of two, and are capped at the longest duration recorded.
+ */
+final class LatencyHistogram
+{
+    //bucket i holds durations below 2^i units of 1024 ns; the last bucket holds everything longer
+    private static final int BUCKETS = 40;
+    private static final int UNIT_SHIFT = 10;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos)
+    {
+        if(nanos < 0) nanos = 0;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos >> UNIT_SHIFT));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while(nanos > max && !maxNanos.compareAndSet(max, nanos))
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    long count()
+    {
+        return count.get();
+    }
+
+    long totalNanos()
+    {
+        return totalNanos.get();
+    }
+
+    long maxNanos()
+    {
+        return maxNanos.get();
+    }
+
+    /* returns the upper bound of the bucket holding the q-quantile of the durations, or 0 if none */
+    long percentileNanos(double q)
+    {
+        long n = count.get();
+        if(n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += buckets.get(i);
+            if(seen >= rank) return Math.min(maxNanos.get(), (1L << i) << UNIT_SHIFT);
+        }
+        return maxNanos.get();
+    }
+}
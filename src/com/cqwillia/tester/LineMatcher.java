@@ -0,0 +1,77 @@
+package com.cqwillia.tester;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+
+/* A LineMatcher checks output lines against a reference as they are supplied, one at a time.
+   An output passes when every reference line equals the output line in the same position and
+   both have the same number of non-empty lines; trailing output beyond the end of the reference
+   therefore only fails the trial if it is not blank.
+   Once a difference has been found the verdict cannot change, so line() returns false and the
+   caller may stop supplying lines.
+ */
+final class LineMatcher implements Closeable
+{
+    private final BufferedReader ref;
+    private boolean refDone;
+    private long lineNo;
+    private long outLines;
+    private long refLines;
+    private long firstDifference;
+    private long firstExtraLine;
+
+    LineMatcher(BufferedReader ref)
+    {
+        this.ref = ref;
+    }
+
+    boolean line(String out) throws IOException
+    {
+        if(firstDifference != 0) return false;
+        lineNo++;
+        if(!out.isEmpty()) outLines++;
+
+        String nextRef = refDone ? null : ref.readLine();
+        if(nextRef == null)
+        {
+            refDone = true;
+            if(!out.isEmpty() && firstExtraLine == 0) firstExtraLine = lineNo;
+            return true;
+        }
+
+        if(!nextRef.isEmpty()) refLines++;
+        if(!nextRef.equals(out))
+        {
+            firstDifference = lineNo;
+            return false;
+        }
+        return true;
+    }
+
+    /* reads whatever remains of the reference and returns the verdict */
+    Comparison finish() throws IOException
+    {
+        if(firstDifference == 0 && !refDone)
+        {
+            //the output has ended, so any remaining reference line is a difference
+            String nextRef = ref.readLine();
+            if(nextRef != null)
+            {
+                if(!nextRef.isEmpty()) refLines++;
+                firstDifference = lineNo + 1;
+            }
+            refDone = true;
+        }
+
+        if(firstDifference == 0 && outLines != refLines) firstDifference = firstExtraLine;
+        boolean passed = firstDifference == 0 && outLines == refLines;
+        return new Comparison(passed, false, outLines, refLines, firstDifference);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        ref.close();
+    }
+}
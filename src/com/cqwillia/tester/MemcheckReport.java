@@ -0,0 +1,136 @@
+package com.cqwillia.tester;
+
+import java.util.*;
+
+/* A MemcheckReport is what valgrind's memcheck found in one trial: how many errors of each kind
+   it reported, how many bytes were lost by each kind of leak, and the message and stack of the
+   first few errors. Kinds use the names memcheck gives them in its XML output, such as
+   InvalidRead, UninitCondition or Leak_DefinitelyLost, whichever format the report was read from.
+
+   A trial has a valgrind error if memcheck reported anything other than a leak, or if any bytes
+   were definitely lost. Only the first MAX_DETAILED errors keep their stacks, so a trial that
+   reports the same error millions of times costs no more memory than one that reports it once.
+ */
+final class MemcheckReport
+{
+    static final int MAX_DETAILED = 8;
+    static final int MAX_FRAMES = 12;
+
+    static final class Error
+    {
+        final String kind;
+        final String what;
+        final long bytes;
+        final List<String> stack;
+
+        Error(String kind, String what, long bytes, List<String> stack)
+        {
+            this.kind = kind;
+            this.what = what;
+            this.bytes = bytes;
+            this.stack = Collections.unmodifiableList(stack);
+        }
+    }
+
+    final Map<String, Integer> kinds = new TreeMap<>();
+    final List<Error> errors = new ArrayList<>();
+    long definitelyLost;
+    long indirectlyLost;
+    long possiblyLost;
+
+    /* whether another error would still have its stack kept */
+    boolean wantsDetail()
+    {
+        return errors.size() < MAX_DETAILED;
+    }
+
+    /* records one error; stack may be null for errors past the first MAX_DETAILED */
+    void add(String kind, String what, long bytes, List<String> stack)
+    {
+        Integer n = kinds.get(kind);
+        kinds.put(kind, n == null ? 1 : n + 1);
+        if(kind.equals("Leak_DefinitelyLost")) definitelyLost += bytes;
+        else if(kind.equals("Leak_IndirectlyLost")) indirectlyLost += bytes;
+        else if(kind.equals("Leak_PossiblyLost")) possiblyLost += bytes;
+        if(stack != null && wantsDetail())
+            errors.add(new Error(kind, what, bytes, stack));
+    }
+
+    int errorCount()
+    {
+        int n = 0;
+        for(int count : kinds.values())
+        {
+            n += count;
+        }
+        return n;
+    }
+
+    boolean hasErrors()
+    {
+        if(definitelyLost > 0) return true;
+        for(String kind : kinds.keySet())
+        {
+            if(!kind.startsWith("Leak_")) return true;
+        }
+        return false;
+    }
+
+    /* returns a few lines summarising the report for a trial's log */
+    List<String> describe()
+    {
+        List<String> lines = new ArrayList<>();
+        StringBuilder counts = new StringBuilder();
+        for(Map.Entry<String, Integer> kind : kinds.entrySet())
+        {
+            if(counts.length() > 0) counts.append(", ");
+            counts.append(kind.getKey()).append(" x").append(kind.getValue());
+        }
+        lines.add("  Memcheck: " + errorCount() + " errors" + (counts.length() > 0 ? " (" + counts + ")" : "")
+                + "; " + definitelyLost + " bytes definitely lost, " + indirectlyLost + " indirectly lost, "
+                + possiblyLost + " possibly lost.");
+        for(Error e : errors)
+        {
+            if(e.kind.startsWith("Leak_") && !e.kind.equals("Leak_DefinitelyLost")) continue;
+            lines.add("  First error: " + e.what);
+            for(int i = 0; i < e.stack.size() && i < 4; i++)
+            {
+                lines.add("    " + (i == 0 ? "at " : "by ") + e.stack.get(i));
+            }
+            break;
+        }
+        return lines;
+    }
+
+    /* writes the counts of this report, but not its stacks, into a cache entry */
+    void store(Properties p)
+    {
+        StringBuilder counts = new StringBuilder();
+        for(Map.Entry<String, Integer> kind : kinds.entrySet())
+        {
+            if(counts.length() > 0) counts.append(',');
+            counts.append(kind.getKey()).append(':').append(kind.getValue());
+        }
+        p.setProperty("memcheck.kinds", counts.toString());
+        p.setProperty("memcheck.definitelyLost", Long.toString(definitelyLost));
+        p.setProperty("memcheck.indirectlyLost", Long.toString(indirectlyLost));
+        p.setProperty("memcheck.possiblyLost", Long.toString(possiblyLost));
+    }
+
+    /* reads a report written by store, or returns null if the entry has none */
+    static MemcheckReport load(Properties p)
+    {
+        String counts = p.getProperty("memcheck.kinds");
+        if(counts == null) return null;
+        MemcheckReport report = new MemcheckReport();
+        for(String kind : counts.split(","))
+        {
+            int colon = kind.lastIndexOf(':');
+            if(colon > 0) report.kinds.put(kind.substring(0, colon), Integer.parseInt(kind.substring(colon + 1)));
+        }
+        report.definitelyLost = Long.parseLong(p.getProperty("memcheck.definitelyLost", "0"));
+        report.indirectlyLost = Long.parseLong(p.getProperty("memcheck.indirectlyLost", "0"));
+        report.possiblyLost = Long.parseLong(p.getProperty("memcheck.possiblyLost", "0"));
+        return report;
+    }
+}
@@ -0,0 +1,140 @@
+package com.cqwillia.tester;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/* ObjectCache is a local content-addressed store of compiled objects, in the spirit of ccache.
+   An object's key is a hash of the compiler flags, its source file and every header that source
+   includes with #include "...", followed transitively. Any test, and any later run, whose source
+   hashes to the same key can reuse the stored object instead of invoking the compiler.
+
+   Next to each object in bin, a ".key" file records the key it was built from. When that key is
+   current the object is already up to date and is left alone.
+
+   trim keeps the stored objects under maxBytes by evicting the least recently used, which a later
+   build simply compiles again.
+ */
+final class ObjectCache
+{
+    private static final Pattern LOCAL_INCLUDE = Pattern.compile("^\\s*#\\s*include\\s*\"([^\"]+)\"");
+
+    static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private final Path dir;
+    private final long maxBytes;
+
+    /* opens a cache with the limit in the tester.objects.maxMB system property, falling back on the default */
+    ObjectCache(Path dir)
+    {
+        this(dir, Long.getLong("tester.objects.maxMB", DEFAULT_MAX_BYTES >> 20) << 20);
+    }
+
+    ObjectCache(Path dir, long maxBytes)
+    {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /* computes the cache key for compiling source with the given flags */
+    static String key(Path source, String flags) throws IOException
+    {
+        MessageDigest digest = Hashes.sha256();
+        digest.update(flags.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+
+        //hash the source followed by each local header it reaches, in the order they are first included
+        Set<Path> seen = new LinkedHashSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.add(source.toAbsolutePath().normalize());
+        while(!pending.isEmpty())
+        {
+            Path next = pending.poll();
+            if(!seen.add(next)) continue;
+            digest.update(next.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            Hashes.update(digest, next);
+            for(Path header : includes(next))
+            {
+                if(!seen.contains(header)) pending.add(header);
+            }
+        }
+        return Hashes.hex(digest.digest());
+    }
+
+    private static Set<Path> includes(Path file) throws IOException
+    {
+        Set<Path> found = new LinkedHashSet<>();
+        try(BufferedReader in = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1))
+        {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                Matcher m = LOCAL_INCLUDE.matcher(line);
+                if(!m.find()) continue;
+                Path header = file.resolveSibling(m.group(1)).normalize();
+                if(Files.isRegularFile(header)) found.add(header);
+            }
+        }
+        return found;
+    }
+
+    /* returns true if object is already the output of key, or has been restored from the cache */
+    boolean restore(String key, Path object) throws IOException
+    {
+        Path keyFile = keyFile(object);
+        if(Files.isRegularFile(object) && Files.isRegularFile(keyFile)
+                && new String(Files.readAllBytes(keyFile), StandardCharsets.UTF_8).equals(key))
+            return true;
+
+        Path cached = dir.resolve(key + ".o");
+        if(!Files.isRegularFile(cached)) return false;
+
+        try
+        {
+            Files.copy(cached, object, StandardCopyOption.REPLACE_EXISTING);
+        } catch(NoSuchFileException e)
+        {
+            //evicted since it was looked up
+            return false;
+        }
+        CacheEviction.touch(cached);
+        Files.write(keyFile, key.getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    /* records a freshly compiled object under key */
+    void store(String key, Path object) throws IOException
+    {
+        if(!Files.isRegularFile(object)) return;
+        Files.createDirectories(dir);
+        Path cached = dir.resolve(key + ".o");
+        if(!Files.isRegularFile(cached))
+        {
+            //copy under a temporary name first so that a concurrent reader never sees a partial object
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.copy(object, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        else CacheEviction.touch(cached);
+        Files.write(keyFile(object), key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void trim() throws IOException
+    {
+        CacheEviction.trim(dir, maxBytes);
+    }
+
+    private static Path keyFile(Path object)
+    {
+        return object.resolveSibling(object.getFileName() + ".key");
+    }
+}
@@ -0,0 +1,207 @@
+package com.cqwillia.tester;
+
+import com.cqwillia.tester.exceptions.AngleExpressionException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/* ResultCache remembers the outcome of every trial that ran to completion, keyed by a hash of the
+   test executable, the command template, the arguments it expanded to for the trial, and the
+   contents of the trial's input, and of its reference when the command names it with <ref>. The
+   expanded arguments carry the trial's key, name and file paths, so trials with identical inputs
+   whose commands differ in those never share an entry. When none of these have changed, a trial's
+   stored output and valgrind verdict are restored instead of running the trial again. A reference
+   the command does not name cannot change the output, so in tee mode the stored comparison is
+   restored while the reference is unchanged, and the stored output is compared against it again
+   once it has changed.
+
+   Each entry is a properties file named by its key. Outputs are stored once per distinct content
+   in a blobs directory, so identical outputs from different trials share storage. Outputs larger
+   than maxOutputBytes are not stored, so a trial writing a huge output is not read and written a
+   second time, and trim keeps the blobs under maxBytes by evicting the least recently used. An
+   entry whose blob has been evicted is deleted when it is next looked up.
+ */
+final class ResultCache
+{
+    static final long DEFAULT_MAX_BYTES = 1L << 30;
+    static final long DEFAULT_MAX_OUTPUT_BYTES = 64L << 20;
+
+    private final Path dir;
+    private final Path blobs;
+    private final String execHash;
+    private final String template;
+    private final boolean namesReference;
+    private final long maxOutputBytes;
+    private final long maxBytes;
+
+    private ResultCache(Path dir, String execHash, String template, boolean namesReference, long maxOutputBytes,
+                        long maxBytes)
+    {
+        this.dir = dir;
+        this.blobs = dir.resolve("blobs");
+        this.execHash = execHash;
+        this.template = template;
+        this.namesReference = namesReference;
+        this.maxOutputBytes = maxOutputBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /* Opens a cache with the limits in the tester.cache.maxMB and tester.cache.maxOutputMB system
+       properties, falling back on the defaults. */
+    static ResultCache open(Path dir, Path exec, String template)
+    {
+        long maxBytes = Long.getLong("tester.cache.maxMB", DEFAULT_MAX_BYTES >> 20) << 20;
+        long maxOutputBytes = Long.getLong("tester.cache.maxOutputMB", DEFAULT_MAX_OUTPUT_BYTES >> 20) << 20;
+        return open(dir, exec, template, maxOutputBytes, maxBytes);
+    }
+
+    /* returns a cache for trials of exec run through template, or null if exec cannot be read or
+       template cannot be compiled */
+    static ResultCache open(Path dir, Path exec, String template, long maxOutputBytes, long maxBytes)
+    {
+        try
+        {
+            boolean namesReference = CommandTemplate.compile(template).uses(CommandTemplate.Placeholder.REF);
+            return new ResultCache(dir, Hashes.of(exec), template, namesReference, maxOutputBytes, maxBytes);
+        } catch(IOException | AngleExpressionException e)
+        {
+            return null;
+        }
+    }
+
+    String key(Trial t) throws IOException
+    {
+        MessageDigest digest = Hashes.sha256();
+        digest.update(execHash.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(template.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        for(String arg : t.argv)
+        {
+            digest.update(arg.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        //each file is introduced by a marker, so that an input alone never hashes like a reference alone
+        if(t.input != null)
+        {
+            digest.update((byte) 'i');
+            Hashes.update(digest, t.input.toPath());
+        }
+        if(namesReference && t.reference != null)
+        {
+            digest.update((byte) 'r');
+            Hashes.update(digest, t.reference.toPath());
+        }
+        return Hashes.hex(digest.digest());
+    }
+
+    /* restores the stored result of t if there is one; returns whether it did. If capture is false,
+       only the valgrind verdict is restored and the trial's output file is left alone.
+     */
+    boolean restore(Trial t, String key, RunOptions options, boolean capture) throws IOException
+    {
+        Path entry = dir.resolve(key + ".properties");
+        if(!Files.isRegularFile(entry)) return false;
+
+        Properties stored = new Properties();
+        try(Reader in = Files.newBufferedReader(entry, StandardCharsets.UTF_8))
+        {
+            stored.load(in);
+        }
+        Path blob = blobs.resolve(stored.getProperty("output", ""));
+        if(!Files.isRegularFile(blob))
+        {
+            //the blob has been evicted, so the entry can never be restored again
+            Files.deleteIfExists(entry);
+            return false;
+        }
+        CacheEviction.touch(blob);
+
+        t.println("Reusing cached result for trial " + t.key + "; its executable, arguments and files are unchanged.");
+        //the output file is overwritten in place rather than replaced, so it never briefly disappears
+        if(capture && (options.isWriteOutput() || !options.isTeeCompare()))
+        {
+            try(OutputStream out = Files.newOutputStream(t.output.toPath()))
+            {
+                Files.copy(blob, out);
+            }
+        }
+
+        MemcheckReport memcheck = MemcheckReport.load(stored);
+        if(memcheck != null) t.setMemcheck(memcheck);
+        else if(Boolean.parseBoolean(stored.getProperty("valgrindError")))
+        {
+            t.valgrindError = true;
+            t.println("Valgrind error in trial corresponding to output file " + t.output);
+        }
+
+        if(capture && options.isTeeCompare() && t.reference != null)
+        {
+            //the stored comparison only holds while the reference is unchanged; the output does not depend on it
+            String refHash = Hashes.of(t.reference.toPath());
+            if(refHash.equals(stored.getProperty("reference")))
+            {
+                t.comparison = new Comparison(Boolean.parseBoolean(stored.getProperty("passed")), false,
+                        Long.parseLong(stored.getProperty("outLines")), Long.parseLong(stored.getProperty("refLines")),
+                        Long.parseLong(stored.getProperty("firstDifference")));
+            }
+            else
+            {
+                t.comparison = ResultComparator.compare(blob.toFile(), t.reference, options.isMappedCompare());
+            }
+        }
+        return true;
+    }
+
+    /* records the result of t, which must have run to completion and written its output file */
+    void store(Trial t, String key) throws IOException
+    {
+        if(!t.output.isFile() || t.output.length() > maxOutputBytes) return;
+        Files.createDirectories(blobs);
+
+        String outHash = Hashes.of(t.output.toPath());
+        Path blob = blobs.resolve(outHash);
+        if(!Files.isRegularFile(blob)) atomicCopy(t.output.toPath(), blob);
+        else CacheEviction.touch(blob);
+
+        Properties entry = new Properties();
+        entry.setProperty("output", outHash);
+        entry.setProperty("valgrindError", Boolean.toString(t.valgrindError));
+        if(t.memcheck != null) t.memcheck.store(entry);
+        if(t.comparison != null && t.reference != null)
+        {
+            entry.setProperty("reference", Hashes.of(t.reference.toPath()));
+            entry.setProperty("passed", Boolean.toString(t.comparison.passed));
+            entry.setProperty("outLines", Long.toString(t.comparison.outLines));
+            entry.setProperty("refLines", Long.toString(t.comparison.refLines));
+            entry.setProperty("firstDifference", Long.toString(t.comparison.firstDifference));
+        }
+
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try(Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+        {
+            entry.store(out, "Cached trial result");
+        }
+        Files.move(tmp, dir.resolve(key + ".properties"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* evicts the least recently used outputs until the stored outputs fit in maxBytes */
+    void trim() throws IOException
+    {
+        CacheEviction.trim(blobs, maxBytes);
+    }
+
+    /* copies under a temporary name first so that a concurrent reader never sees a partial file */
+    private void atomicCopy(Path from, Path to) throws IOException
+    {
+        Path tmp = Files.createTempFile(to.getParent(), to.getFileName().toString(), ".tmp");
+        Files.copy(from, tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,54 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/* ResultComparator compares an output file against its reference in a single streaming pass,
+   stopping at the first difference. When the mapped fast path is enabled and the two files are
+   the same size, their bytes are first compared through memory-mapped windows; identical files
+   then pass without being decoded into lines at all.
+ */
+final class ResultComparator
+{
+    /* size of each memory-mapped window, which keeps files larger than 2GB mappable */
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    private ResultComparator() {}
+
+    static Comparison compare(File out, File ref, boolean mapped) throws IOException
+    {
+        if(mapped && out.length() == ref.length() && sameBytes(out, ref))
+            return Comparison.identical();
+
+        try(BufferedReader readOut = new BufferedReader(new InputStreamReader(new FileInputStream(out)));
+            LineMatcher matcher = new LineMatcher(new BufferedReader(new InputStreamReader(new FileInputStream(ref)))))
+        {
+            String nextOut;
+            while((nextOut = readOut.readLine()) != null)
+            {
+                if(!matcher.line(nextOut)) break;
+            }
+            return matcher.finish();
+        }
+    }
+
+    static boolean sameBytes(File a, File b) throws IOException
+    {
+        try(FileChannel ca = FileChannel.open(a.toPath(), StandardOpenOption.READ);
+            FileChannel cb = FileChannel.open(b.toPath(), StandardOpenOption.READ))
+        {
+            long size = ca.size();
+            if(size != cb.size()) return false;
+            for(long pos = 0; pos < size; pos += WINDOW)
+            {
+                long len = Math.min(WINDOW, size - pos);
+                MappedByteBuffer ma = ca.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MappedByteBuffer mb = cb.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                if(ma.mismatch(mb) != -1) return false;
+            }
+            return true;
+        }
+    }
+}
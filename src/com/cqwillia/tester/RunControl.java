@@ -0,0 +1,123 @@
+package com.cqwillia.tester;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Cameron Williams
+ * @version 0.0.2
+ * @since 0.0.2
+ *
+ * A <code>RunControl</code> connects one build-and-run of the tester to whoever started it.
+ * {@link CommandBuilder} reports progress through it as trials finish, and starts every child
+ * process through it so that {@link #cancel()} can kill whatever is still in flight.
+ */
+public final class RunControl
+{
+    /**
+     * Receives the number of trials finished so far and the total number of trials in the
+     * current phase of the run, such as the valgrind checks that follow the native trials. It is
+     * called from whichever thread finished the trial, and with no trials finished as each phase
+     * begins.
+     */
+    public interface ProgressListener
+    {
+        void progress(int done, int total);
+    }
+
+    //children of every run in this JVM, which Watchdog needs to tell whose CPU time it was
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicLong starts = new AtomicLong();
+
+    private volatile boolean cancelled;
+    private final Set<Process> live = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger done = new AtomicInteger();
+    private final ProgressListener listener;
+
+    public RunControl()
+    {
+        this(null);
+    }
+
+    public RunControl(ProgressListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Marks the run as cancelled and forcibly kills every process it has started that is
+     * still alive, along with their descendants.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        for(Process p : live)
+        {
+            kill(p);
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /* starts a process on behalf of the run, refusing to do so once the run has been cancelled */
+    Process start(ProcessBuilder builder) throws IOException
+    {
+        if(cancelled) throw new InterruptedIOException("Run cancelled");
+        Process p = builder.start();
+        starts.incrementAndGet();
+        running.incrementAndGet();
+        live.add(p);
+        //cancel() may have swept the live set between the check above and the add
+        if(cancelled) kill(p);
+        return p;
+    }
+
+    void finished(Process p)
+    {
+        if(live.remove(p)) running.decrementAndGet();
+    }
+
+    /* returns the number of children started through any RunControl that have not yet finished */
+    static int running()
+    {
+        return running.get();
+    }
+
+    /* returns the number of children ever started through any RunControl */
+    static long starts()
+    {
+        return starts.get();
+    }
+
+    /* starts counting the trials of a new phase of the run from zero */
+    void phaseStarted(int total)
+    {
+        done.set(0);
+        if(listener != null) listener.progress(0, total);
+    }
+
+    void trialFinished(int total)
+    {
+        int n = done.incrementAndGet();
+        if(listener != null) listener.progress(n, total);
+    }
+
+    /* kills the children of p before p itself, so that e.g. a program run under valgrind cannot outlive it */
+    static void kill(Process p)
+    {
+        Iterator<ProcessHandle> children = p.descendants().iterator();
+        while(children.hasNext())
+        {
+            children.next().destroyForcibly();
+        }
+        p.destroyForcibly();
+    }
+}
@@ -0,0 +1,345 @@
+package com.cqwillia.tester;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @author Cameron Williams
+ * @version 0.0.2
+ * @since 0.0.2
+ *
+ * <code>RunOptions</code> holds the settings that control how
+ * {@link CommandBuilder#run(String[], String, RunOptions, java.io.PrintStream)} executes the
+ * trials of a test, as opposed to the preferences, which control what is tested.
+ */
+public final class RunOptions
+{
+    /**
+     * Which trials are run under valgrind. <code>INLINE</code> runs every trial exactly as the
+     * command template says. The other modes run every trial natively first, with any valgrind
+     * prefix stripped from the template, and then run the trials they select again under valgrind.
+     */
+    public enum ValgrindMode
+    {
+        INLINE("Valgrind on every trial"),
+        FAILURES("Valgrind on failures"),
+        SAMPLE("Valgrind on a sample"),
+        ALL("Native, then valgrind on all"),
+        NONE("Native only");
+
+        private final String label;
+
+        ValgrindMode(String label)
+        {
+            this.label = label;
+        }
+
+        String describe()
+        {
+            switch(this)
+            {
+                case FAILURES: return "the trials that fail";
+                case SAMPLE: return "a sample of the trials";
+                default: return "every trial";
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return label;
+        }
+    }
+
+    /**
+     * The maximum number of trials that may be running at once. Defaults to the number of
+     * processors available to the Java Virtual Machine.
+     */
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether output and reference files of equal size are first compared byte for byte
+     * through memory-mapped buffers, skipping line-by-line comparison when they are identical.
+     */
+    private boolean mappedCompare = true;
+
+    /**
+     * In tee mode each trial's standard output is compared against its reference file as it
+     * streams in, so verdicts are ready as soon as the trials exit. Writing the output files
+     * to disk is then optional.
+     */
+    private boolean teeCompare = false;
+    private boolean writeOutput = true;
+
+    /**
+     * Whether the standard output of trials that are not tee compared is redirected straight to
+     * their output files, and their standard error to a log file of their own, instead of being
+     * copied through the tester a line at a time.
+     */
+    private boolean directCapture = true;
+
+    /**
+     * Whether trials may reuse results stored by earlier runs when the test executable,
+     * their input file and the command template are all unchanged.
+     */
+    private boolean resultCache = true;
+
+    /**
+     * Whether trials run under valgrind write their memcheck report as XML to a file of their
+     * own, which is parsed instead of the text report valgrind writes to standard error.
+     */
+    private boolean valgrindXml = true;
+
+    /**
+     * Which trials run under valgrind and, in <code>SAMPLE</code> mode, how many are checked.
+     */
+    private ValgrindMode valgrindMode = ValgrindMode.INLINE;
+    private int valgrindSample = 5;
+
+    /**
+     * Limits enforced on each trial by the watchdog. A trial that exceeds one is killed, along
+     * with its descendants; one whose output or standard error log passes the output limit has
+     * it truncated and marked as such. A limit of zero is not enforced, and every limit is zero unless a caller
+     * sets it, since tests under valgrind and tests with very large outputs are both expected.
+     */
+    private long timeoutMillis = 0;
+    private long cpuLimitMillis = 0;
+    private long outputLimitBytes = 0;
+    private long memoryLimitBytes = 0;
+
+    /**
+     * The directory holding the src and bin directories that a test is staged into and built in.
+     */
+    private File scriptsDir = new File("scripts");
+
+    /**
+     * The directory holding the object and result caches, or null for the cache directory inside
+     * the scripts directory. Runs that set the same directory share their caches.
+     */
+    private File cacheDir;
+
+    /**
+     * An executor shared with other runs, on which trials and compile jobs are scheduled instead
+     * of on pools of their own. It is not shut down at the end of a run. The run waits for those
+     * jobs from its own thread, which must not be one of the executor's.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The keys of the trials to run, or null to run every trial the command template generates.
+     * Watch mode uses this to re-run only the trials whose input or reference files have changed.
+     */
+    private Set<Integer> trialKeys;
+
+    /**
+     * How many hunks of differences are found and printed for each failed trial. Zero prints none.
+     */
+    private int diffHunks = DiffEngine.DEFAULT_HUNKS;
+
+    /* returns a copy of these options, which may then be changed independently */
+    RunOptions copy()
+    {
+        RunOptions o = new RunOptions();
+        o.concurrency = concurrency;
+        o.mappedCompare = mappedCompare;
+        o.teeCompare = teeCompare;
+        o.writeOutput = writeOutput;
+        o.directCapture = directCapture;
+        o.resultCache = resultCache;
+        o.valgrindXml = valgrindXml;
+        o.valgrindMode = valgrindMode;
+        o.valgrindSample = valgrindSample;
+        o.timeoutMillis = timeoutMillis;
+        o.cpuLimitMillis = cpuLimitMillis;
+        o.outputLimitBytes = outputLimitBytes;
+        o.memoryLimitBytes = memoryLimitBytes;
+        o.scriptsDir = scriptsDir;
+        o.cacheDir = cacheDir;
+        o.executor = executor;
+        o.trialKeys = trialKeys;
+        o.diffHunks = diffHunks;
+        return o;
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    public void setConcurrency(int n)
+    {
+        concurrency = Math.max(1, n);
+    }
+
+    public boolean isMappedCompare()
+    {
+        return mappedCompare;
+    }
+
+    public void setMappedCompare(boolean b)
+    {
+        mappedCompare = b;
+    }
+
+    public boolean isTeeCompare()
+    {
+        return teeCompare;
+    }
+
+    public void setTeeCompare(boolean b)
+    {
+        teeCompare = b;
+    }
+
+    public boolean isWriteOutput()
+    {
+        return writeOutput;
+    }
+
+    public void setWriteOutput(boolean b)
+    {
+        writeOutput = b;
+    }
+
+    public boolean isDirectCapture()
+    {
+        return directCapture;
+    }
+
+    public void setDirectCapture(boolean b)
+    {
+        directCapture = b;
+    }
+
+    public boolean isResultCache()
+    {
+        return resultCache;
+    }
+
+    public void setResultCache(boolean b)
+    {
+        resultCache = b;
+    }
+
+    public boolean isValgrindXml()
+    {
+        return valgrindXml;
+    }
+
+    public void setValgrindXml(boolean b)
+    {
+        valgrindXml = b;
+    }
+
+    public ValgrindMode getValgrindMode()
+    {
+        return valgrindMode;
+    }
+
+    public void setValgrindMode(ValgrindMode m)
+    {
+        valgrindMode = m;
+    }
+
+    public int getValgrindSample()
+    {
+        return valgrindSample;
+    }
+
+    public void setValgrindSample(int n)
+    {
+        valgrindSample = Math.max(1, n);
+    }
+
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long ms)
+    {
+        timeoutMillis = Math.max(0, ms);
+    }
+
+    public long getCpuLimitMillis()
+    {
+        return cpuLimitMillis;
+    }
+
+    public void setCpuLimitMillis(long ms)
+    {
+        cpuLimitMillis = Math.max(0, ms);
+    }
+
+    public long getOutputLimitBytes()
+    {
+        return outputLimitBytes;
+    }
+
+    public void setOutputLimitBytes(long bytes)
+    {
+        outputLimitBytes = Math.max(0, bytes);
+    }
+
+    public long getMemoryLimitBytes()
+    {
+        return memoryLimitBytes;
+    }
+
+    public void setMemoryLimitBytes(long bytes)
+    {
+        memoryLimitBytes = Math.max(0, bytes);
+    }
+
+    public File getScriptsDir()
+    {
+        return scriptsDir;
+    }
+
+    public void setScriptsDir(File dir)
+    {
+        scriptsDir = dir;
+    }
+
+    public File getCacheDir()
+    {
+        return cacheDir != null ? cacheDir : new File(scriptsDir, "cache");
+    }
+
+    public void setCacheDir(File dir)
+    {
+        cacheDir = dir;
+    }
+
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorService e)
+    {
+        executor = e;
+    }
+
+    public Set<Integer> getTrialKeys()
+    {
+        return trialKeys;
+    }
+
+    public void setTrialKeys(Set<Integer> keys)
+    {
+        trialKeys = keys == null ? null : new TreeSet<>(keys);
+    }
+
+    public int getDiffHunks()
+    {
+        return diffHunks;
+    }
+
+    public void setDiffHunks(int n)
+    {
+        diffHunks = Math.max(0, n);
+    }
+}
@@ -0,0 +1,109 @@
+package com.cqwillia.tester;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * @author Cameron Williams
+ * @version 0.0.2
+ * @since 0.0.2
+ *
+ * A <code>RunReport</code> holds the outcome of one call to
+ * {@link CommandBuilder#run(String[], String, RunOptions, RunControl, java.io.PrintStream)}: every
+ * trial that was generated, in key order, and the comparison made for each trial that had a
+ * reference file.
+ */
+public final class RunReport
+{
+    public enum Status
+    {
+        PASSED, FAILED, UNCHECKED
+    }
+
+    final Map<Integer, Trial> trials;
+    final Map<Integer, Comparison> comparisons;
+    final Map<String, Long> phases;
+    private final boolean cancelled;
+
+    RunReport(Map<Integer, Trial> trials, Map<Integer, Comparison> comparisons, boolean cancelled)
+    {
+        this(trials, comparisons, cancelled, Collections.<String, Long>emptyMap());
+    }
+
+    RunReport(Map<Integer, Trial> trials, Map<Integer, Comparison> comparisons, boolean cancelled,
+              Map<String, Long> phases)
+    {
+        this.trials = Collections.unmodifiableMap(trials);
+        this.comparisons = Collections.unmodifiableMap(comparisons);
+        this.cancelled = cancelled;
+        this.phases = Collections.unmodifiableMap(phases);
+    }
+
+    Status status(int key)
+    {
+        Comparison c = comparisons.get(key);
+        if(c == null) return Status.UNCHECKED;
+        return c.passed ? Status.PASSED : Status.FAILED;
+    }
+
+    public int total()
+    {
+        return trials.size();
+    }
+
+    public int count(Status s)
+    {
+        int n = 0;
+        for(Integer key : trials.keySet())
+        {
+            if(status(key) == s) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of trials the watchdog killed for exceeding a limit.
+     */
+    public int limitsExceeded()
+    {
+        int n = 0;
+        for(Trial t : trials.values())
+        {
+            if(t.limitExceeded != null) n++;
+        }
+        return n;
+    }
+
+    public int valgrindErrors()
+    {
+        int n = 0;
+        for(Trial t : trials.values())
+        {
+            if(t.valgrindError) n++;
+        }
+        return n;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * A run is successful when it was not cancelled, no trial failed its comparison or was
+     * killed for exceeding a limit, and valgrind reported no errors.
+     */
+    public boolean isSuccessful()
+    {
+        return !cancelled && count(Status.FAILED) == 0 && limitsExceeded() == 0 && valgrindErrors() == 0;
+    }
+
+    /**
+     * A run is checked when at least one of its trials was compared against a reference, so that
+     * a successful run that is not checked has passed nothing.
+     */
+    public boolean isChecked()
+    {
+        return count(Status.UNCHECKED) < total();
+    }
+}
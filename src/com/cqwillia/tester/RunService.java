@@ -0,0 +1,76 @@
+package com.cqwillia.tester;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/* RunService executes builds and runs away from the Swing event thread, one at a time. Only one
+   run may be in progress; the RunControl of that run is kept so that the interface can cancel it,
+   and so that closing the window kills whatever trials it still has running.
+ */
+final class RunService
+{
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "tester-run");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private RunControl current;
+
+    /* returns false without running job if a previous run has not yet finished */
+    synchronized boolean submit(final RunControl control, final Runnable job)
+    {
+        if(current != null) return false;
+        current = control;
+        worker.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    job.run();
+                } finally
+                {
+                    synchronized(RunService.this)
+                    {
+                        current = null;
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    synchronized boolean isBusy()
+    {
+        return current != null;
+    }
+
+    synchronized void cancel()
+    {
+        if(current != null) current.cancel();
+    }
+
+    /* Cancels the run in progress and stops the worker, waiting up to waitMillis for the run to
+       wind down so that its last lines reach the console before it is closed. No run may be
+       submitted afterwards. */
+    void shutdown(long waitMillis)
+    {
+        cancel();
+        worker.shutdown();
+        try
+        {
+            if(!worker.awaitTermination(waitMillis, TimeUnit.MILLISECONDS)) worker.shutdownNow();
+        } catch(InterruptedException e)
+        {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* SessionLog writes the console's lines to the session log file without making the threads that
+   print them wait for the disk. Lines are handed to a bounded ring buffer and written by a thread
+   of their own, which flushes whenever it has caught up. If the buffer fills, later lines are
+   dropped rather than stalling the trial loop, and a note of how many were lost is logged.
+
+   The log is rotated by size: once it grows past maxBytes it becomes <name>.1, the previous
+   <name>.1 becomes <name>.2 and so on, keeping the newest keep files. The log of the previous
+   session is rotated in the same way when the log is opened, rather than overwritten.
+
+   In the JSON format every line is an object holding its time, the thread that printed it, its
+   level and its text, along with what the line is about when the printing thread has said so
+   through phase and trial: the run phase, the trial's key and the trial's wall time.
+ */
+final class SessionLog implements Closeable
+{
+    enum Format { TEXT, JSON }
+
+    static final long DEFAULT_MAX_BYTES = 8L << 20;
+    static final int DEFAULT_KEEP = 3;
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /* what the lines printed by a thread are about; any field may be unset */
+    private static final class Context
+    {
+        final String phase;
+        final int key;
+        final long wallNanos;
+
+        Context(String phase, int key, long wallNanos)
+        {
+            this.phase = phase;
+            this.key = key;
+            this.wallNanos = wallNanos;
+        }
+    }
+
+    private static final Context NONE = new Context(null, -1, -1);
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue()
+        {
+            return NONE;
+        }
+    };
+
+    private static final class Entry
+    {
+        final long millis;
+        final String thread;
+        final Context context;
+        final String text;
+
+        Entry(long millis, String thread, Context context, String text)
+        {
+            this.millis = millis;
+            this.thread = thread;
+            this.context = context;
+            this.text = text;
+        }
+    }
+
+    //queued by close once every line before it, so that the writer finishes and exits
+    private static final Entry END = new Entry(0, null, NONE, null);
+
+    private final File file;
+    private final Format format;
+    private final long maxBytes;
+    private final int keep;
+    private final BlockingQueue<Entry> ring;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private OutputStream out;
+    private long written;
+
+    SessionLog(File file, Format format) throws IOException
+    {
+        this(file, format, DEFAULT_MAX_BYTES, DEFAULT_KEEP, DEFAULT_CAPACITY);
+    }
+
+    SessionLog(File file, Format format, long maxBytes, int keep, int capacity) throws IOException
+    {
+        this.file = file;
+        this.format = format;
+        this.maxBytes = maxBytes;
+        this.keep = keep;
+        ring = new ArrayBlockingQueue<>(capacity);
+        if(file.length() > 0) rotate();
+        out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "session-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /* Reads the format and limits from the tester.log.format, tester.log.maxMB and tester.log.keep
+       system properties, falling back on the text format and the defaults. */
+    static SessionLog open(File file) throws IOException
+    {
+        Format format = "json".equalsIgnoreCase(System.getProperty("tester.log.format"))
+                ? Format.JSON : Format.TEXT;
+        long maxBytes = Long.getLong("tester.log.maxMB", DEFAULT_MAX_BYTES >> 20) << 20;
+        int keep = Integer.getInteger("tester.log.keep", DEFAULT_KEEP);
+        return new SessionLog(file, format, maxBytes, keep, DEFAULT_CAPACITY);
+    }
+
+    /* marks the lines the calling thread prints from now on as belonging to a phase of a run */
+    static void phase(String phase)
+    {
+        CONTEXT.set(new Context(phase, -1, -1));
+    }
+
+    /* marks the lines the calling thread prints from now on as being about the trial with key;
+       wallNanos is the time the trial took, or -1 if it is not known */
+    static void trial(int key, long wallNanos)
+    {
+        CONTEXT.set(new Context(CONTEXT.get().phase, key, wallNanos));
+    }
+
+    /* ends a trial begun with trial, keeping the phase */
+    static void endTrial()
+    {
+        phase(CONTEXT.get().phase);
+    }
+
+    static void clear()
+    {
+        CONTEXT.remove();
+    }
+
+    /* queues a line without waiting; the line is dropped if the writer has fallen too far behind */
+    void append(String line)
+    {
+        Entry e = new Entry(System.currentTimeMillis(), Thread.currentThread().getName(), CONTEXT.get(), line);
+        if(!ring.offer(e)) dropped.incrementAndGet();
+    }
+
+    private void drain()
+    {
+        List<Entry> batch = new ArrayList<>();
+        try
+        {
+            while(true)
+            {
+                batch.add(ring.take());
+                ring.drainTo(batch);
+                for(Entry e : batch)
+                {
+                    if(e == END)
+                    {
+                        out.close();
+                        return;
+                    }
+                    write(e);
+                }
+                batch.clear();
+                long lost = dropped.getAndSet(0);
+                if(lost > 0)
+                    write(new Entry(System.currentTimeMillis(), "session-log", NONE, "WARNING: " + lost
+                            + " console lines were left out of the session log, as it could not keep up."));
+                if(ring.isEmpty()) out.flush();
+            }
+        } catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        } catch(IOException e)
+        {
+            //the log is lost, but the console window still shows every line
+        }
+    }
+
+    private void write(Entry e) throws IOException
+    {
+        byte[] line = (format == Format.JSON ? json(e) : e.text).getBytes(StandardCharsets.UTF_8);
+        if(maxBytes > 0 && written > 0 && written + line.length + 1 > maxBytes)
+        {
+            out.close();
+            rotate();
+            out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+            written = 0;
+        }
+        out.write(line);
+        out.write('\n');
+        written += line.length + 1;
+    }
+
+    private static String json(Entry e)
+    {
+        StringBuilder json = new StringBuilder("{\"time\":");
+        json.append(HeadlessRunner.quote(Instant.ofEpochMilli(e.millis).toString()));
+        json.append(",\"thread\":").append(HeadlessRunner.quote(e.thread));
+        String level = e.text.startsWith("ERROR:") ? "error" : e.text.startsWith("WARNING:") ? "warning" : "info";
+        json.append(",\"level\":").append(HeadlessRunner.quote(level));
+        if(e.context.phase != null) json.append(",\"phase\":").append(HeadlessRunner.quote(e.context.phase));
+        if(e.context.key >= 0) json.append(",\"key\":").append(e.context.key);
+        if(e.context.wallNanos >= 0) json.append(",\"wallMs\":").append(e.context.wallNanos / 1000000);
+        json.append(",\"text\":").append(HeadlessRunner.quote(e.text));
+        return json.append('}').toString();
+    }
+
+    /* shifts the log and its older files along by one, dropping the oldest */
+    private void rotate() throws IOException
+    {
+        if(keep <= 0) return;
+        for(int i = keep - 1; i >= 1; i--)
+        {
+            File older = new File(file.getPath() + "." + i);
+            if(older.exists())
+                Files.move(older.toPath(), new File(file.getPath() + "." + (i + 1)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file.toPath(), new File(file.getPath() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /* writes every line queued so far and closes the file */
+    @Override
+    public void close()
+    {
+        try
+        {
+            //a writer that has failed no longer drains the ring, so it may never have room for END
+            while(writer.isAlive() && !ring.offer(END, 100, TimeUnit.MILLISECONDS)) {}
+            writer.join();
+        } catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.cqwillia.tester;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/* SourceStager copies sources into the scripts directory only when their contents have changed,
+   so staging an unchanged tree writes nothing. Whether an object is rebuilt does not depend on
+   this, since the BuildEngine looks objects up by the hash of their sources rather than by
+   modification times.
+ */
+final class SourceStager
+{
+    private SourceStager() {}
+
+    /* copies src to dest unless dest already holds the same bytes; returns whether a copy was made */
+    static boolean stage(Path src, Path dest) throws IOException
+    {
+        if(Files.isRegularFile(dest) && Files.size(src) == Files.size(dest)
+                && Hashes.of(src).equals(Hashes.of(dest)))
+            return false;
+
+        Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+}
@@ -0,0 +1,210 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* SourceWatcher implements watch mode. It watches the sources that CommandBuilder.build stages for
+   the selected test, along with the input and reference directories, and tells its listener which
+   trials to run again once a burst of changes has settled:
+     - a changed test script, dependency source or header affects every trial of the test, since
+       they all run the one executable; the listener rebuilds it, and BuildEngine only recompiles
+       the objects whose sources changed
+     - a changed input or reference file affects only the trial with that file's key
+   Saving a source without changing its contents is not a change. Changes that arrive while the
+   listener is busy are kept and handed over, merged, once it accepts them.
+ */
+final class SourceWatcher implements Closeable
+{
+    interface Listener
+    {
+        /* keys is null when every trial is affected; returns false if the change cannot be taken yet */
+        boolean changed(Set<Integer> keys);
+    }
+
+    /* how long the watched files must stay untouched before a change is acted on */
+    static final long DEBOUNCE_MILLIS = 300;
+
+    private final Listener listener;
+    private final PrintStream console;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    private final Map<Path, String> sources = new HashMap<>();
+    private final Path inDir;
+    private final Path refDir;
+    private final ScheduledExecutorService debounce = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "source-watcher-debounce");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    //changes not yet accepted by the listener; all is set when every trial is affected
+    private boolean all;
+    private final Set<Integer> keys = new TreeSet<>();
+    private final Set<Path> touched = new HashSet<>();
+    private ScheduledFuture<?> pending;
+
+    SourceWatcher(String[] prefs, Listener listener, PrintStream console) throws IOException
+    {
+        this.listener = listener;
+        this.console = console;
+        inDir = path(new File(prefs[Tester.I_INDIR]));
+        refDir = path(new File(prefs[Tester.I_REFDIR]));
+        watcher = FileSystems.getDefault().newWatchService();
+        try
+        {
+            for(File source : CommandBuilder.sources(prefs))
+            {
+                Path p = path(source);
+                sources.put(p, hash(p));
+                register(p.getParent());
+            }
+            if(Files.isDirectory(inDir)) register(inDir);
+            if(Files.isDirectory(refDir)) register(refDir);
+        } catch(IOException e)
+        {
+            watcher.close();
+            throw e;
+        }
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                pump();
+            }
+        }, "source-watcher");
+        t.setDaemon(true);
+        t.start();
+        console.println("Watching " + sources.size() + " sources and the input and reference directories "
+                + "for changes.");
+    }
+
+    private static Path path(File f)
+    {
+        return f.getAbsoluteFile().toPath().normalize();
+    }
+
+    private void register(Path dir) throws IOException
+    {
+        if(dirs.containsValue(dir)) return;
+        WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        dirs.put(key, dir);
+    }
+
+    /* returns the hash of a source's contents, or null if it does not exist */
+    private static String hash(Path p)
+    {
+        try
+        {
+            return Files.isRegularFile(p) ? Hashes.of(p) : null;
+        } catch(IOException e)
+        {
+            return null;
+        }
+    }
+
+    private void pump()
+    {
+        while(true)
+        {
+            WatchKey key;
+            try
+            {
+                key = watcher.take();
+            } catch(InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+            Path dir = dirs.get(key);
+            for(WatchEvent<?> event : key.pollEvents())
+            {
+                if(dir == null) continue;
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW) record(null);
+                else record(dir.resolve((Path) event.context()));
+            }
+            key.reset();
+        }
+    }
+
+    /* notes a changed file, or a lost event if p is null, and restarts the debounce delay */
+    private synchronized void record(Path p)
+    {
+        if(p == null) all = true;
+        else if(sources.containsKey(p)) touched.add(p);
+        else if(p.getParent().equals(inDir) || p.getParent().equals(refDir))
+        {
+            Integer key = TesterLogic.readKey(p.toFile());
+            if(key == null) return;
+            keys.add(key);
+        }
+        else return;
+
+        if(pending != null) pending.cancel(false);
+        pending = debounce.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                fire();
+            }
+        }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire()
+    {
+        Set<Integer> affected;
+        Set<Integer> handed;
+        synchronized(this)
+        {
+            //only sources whose contents changed count
+            for(Path p : touched)
+            {
+                String now = hash(p);
+                if(!Objects.equals(now, sources.get(p)))
+                {
+                    console.println("Source " + p.getFileName() + " changed.");
+                    sources.put(p, now);
+                    all = true;
+                }
+            }
+            touched.clear();
+            if(!all && keys.isEmpty()) return;
+            //take the changes, so that those recorded while the listener runs are kept for the next round
+            handed = new TreeSet<>(keys);
+            affected = all ? null : handed;
+            all = false;
+            keys.clear();
+        }
+
+        if(listener.changed(affected)) return;
+
+        //give the changes back and try again once the listener has had time to finish what it is doing
+        synchronized(this)
+        {
+            if(affected == null) all = true;
+            keys.addAll(handed);
+            if(pending != null) pending.cancel(false);
+            pending = debounce.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    fire();
+                }
+            }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        debounce.shutdownNow();
+        watcher.close();
+    }
+}
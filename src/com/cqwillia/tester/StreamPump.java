@@ -0,0 +1,61 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+
+/* A StreamPump drains one stream of a child process on its own thread, passing each line to a
+   LineHandler. Pumping stdout and stderr at the same time keeps a chatty process (valgrind
+   writes most of its report to stderr) from filling one pipe and stalling while the tester is
+   blocked reading the other.
+   If the handler fails, the pump keeps reading and discarding the rest of the stream so that the
+   child can still run to completion; the failure is rethrown from finish().
+ */
+final class StreamPump extends Thread
+{
+    interface LineHandler
+    {
+        void line(String s) throws IOException;
+    }
+
+    private final InputStream in;
+    private final LineHandler handler;
+    private IOException failure;
+
+    StreamPump(String name, InputStream in, LineHandler handler)
+    {
+        super(name);
+        setDaemon(true);
+        this.in = in;
+        this.handler = handler;
+    }
+
+    @Override
+    public void run()
+    {
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(in)))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(failure != null) continue;
+                try
+                {
+                    handler.line(line);
+                } catch(IOException e)
+                {
+                    failure = e;
+                }
+            }
+        } catch(IOException e)
+        {
+            //the stream was closed under us, which happens when the process is destroyed
+            if(failure == null) failure = e;
+        }
+    }
+
+    /* waits for the stream to be exhausted, rethrowing any failure encountered while pumping it */
+    void finish() throws IOException, InterruptedException
+    {
+        join();
+        if(failure != null) throw failure;
+    }
+}
@@ -1,11 +1,30 @@
 package com.cqwillia.tester;
 
+import java.awt.GraphicsEnvironment;
 import java.io.*;
+import java.util.Arrays;
 
 public class TestRunner
 {
     public static void main(String[] args)
     {
+        //serve runs to other processes from this one, or hand this run to such a process
+        if(Arrays.asList(args).contains("--daemon"))
+        {
+            TesterMetrics.register();
+            System.exit(TesterDaemon.serve(args));
+        }
+        if(Arrays.asList(args).contains("--client")) System.exit(TesterDaemon.client(args));
+
+        //the client only relays a daemon's run, so only processes that do the work publish metrics
+        TesterMetrics.register();
+
+        //run without the interface when asked to, or when there is no display to show it on
+        if(Arrays.asList(args).contains("--headless") || GraphicsEnvironment.isHeadless())
+        {
+            System.exit(HeadlessRunner.main(args));
+        }
+
         Tester test = new Tester();
     }
 }
@@ -50,9 +50,8 @@ public class Tester
     private String[] defaultPrefs;
 
     /**
-     * Holds a reference to an instance of an anonymous <code>PrintStream</code>
-     * subclass which prints to the topmost text area of <code>gui</code> when its
-     * <code>println</code> method is invoked.
+     * Holds a reference to a {@link ConsoleSink}, which prints to the topmost text area
+     * of <code>gui</code> in batches and writes every line to the session log.
      */
     private PrintStream console;
 
@@ -62,6 +61,24 @@ public class Tester
      */
     private String command;
 
+    /**
+     * Execution settings passed to {@link CommandBuilder} with each run, such as the number
+     * of trials that may run in parallel.
+     */
+    private RunOptions runOptions;
+
+    /**
+     * Executes builds and runs on a background thread so that the interface stays responsive,
+     * and holds on to the run in progress so that it can be cancelled.
+     */
+    private RunService runService;
+
+    /**
+     * Watches the sources of the selected test and its input and reference files while watch mode
+     * is on, re-running the affected trials whenever they change; null while it is off.
+     */
+    private SourceWatcher watcher;
+
     /**
      * Field is responsible for communication between <code>Tester</code> and
      * <code>TesterInterface</code> as to which field of Tester's preferences is
@@ -87,10 +104,18 @@ public class Tester
     public static final int I_REFDIR = 5;
     public static final int I_TESTPATH = 6;
 
+    /**
+     * The name of each preference in the preferences file, indexed by the
+     * <code>static final</code> fields above.
+     */
+    static final String[] PREF_NAMES = { "workingDirectory", "homeworkNumber", "testName",
+            "inputDirectory", "outputDirectory", "referenceDirectory", "testPath" };
+
     /**
      * These two <code>static final</code> fields store the default file names of
      * the file used to load and store preferences at the beginning and end of program
      * execution, and the session log file to which the console prints all output.
+     * The log is rotated rather than overwritten; see {@link SessionLog}.
      */
     private static final String PREF_PATH = "d.PREFERENCES";
     private static final String LOG_PATH = "session.log";
@@ -107,6 +132,8 @@ public class Tester
         //initialise variable and call initialisation method for gui and connections
         defaultPrefs = new String[7];
         preferences = new String[7];
+        runOptions = new RunOptions();
+        runService = new RunService();
         init();
     }
 
@@ -127,30 +154,9 @@ public class Tester
                 String[] split = line.split("=");
                 if(split.length == 1) continue;
                 String[] left = split[0].split("\\.");
-                switch(left[1])
-                {
-                    case "workingDirectory":
-                        setPref(left[0], split[1], I_WDIR);
-                        break;
-                    case "homeworkNumber":
-                        setPref(left[0], split[1], I_HWNUM);
-                        break;
-                    case "testName":
-                        setPref(left[0], split[1], I_TESTNAME);
-                        break;
-                    case "inputDirectory":
-                        setPref(left[0], split[1], I_INDIR);
-                        break;
-                    case "outputDirectory":
-                        setPref(left[0], split[1], I_OUTDIR);
-                        break;
-                    case "referenceDirectory":
-                        setPref(left[0], split[1], I_REFDIR);
-                        break;
-                    case "testPath":
-                        setPref(left[0], split[1], I_TESTPATH);
-                        break;
-                }
+                if(left.length < 2) continue;
+                int i = prefIndex(left[1]);
+                if(i >= 0) setPref(left[0], split[1], i);
             }
         }
         catch(FileNotFoundException f) { f.printStackTrace(); }
@@ -182,6 +188,9 @@ public class Tester
         {
             console.println("WARNING: One or more paths in preferences file cannot be canonized.");
         }
+        //index the test corpus while the window is built, so that the first run starts at once
+        CorpusIndex.prefetch(new File(preferences[I_INDIR]), new File(preferences[I_OUTDIR]),
+                new File(preferences[I_REFDIR]));
 
         //initialise the gui
         try
@@ -211,23 +220,7 @@ public class Tester
         File log = new File(LOG_PATH);
         try
         {
-            if(!log.exists()) log.createNewFile();
-            console = new PrintStream(log)
-            {
-                @Override
-                public void println(String s)
-                {
-                    EventQueue.invokeLater(new Runnable()
-                    {
-                        public void run()
-                        {
-                            gui.consoleWindow.append(s);
-                            gui.consoleWindow.append("\n");
-                        }
-                    });
-                    super.println(s);
-                }
-            };
+            console = new ConsoleSink(gui.consoleWindow, SessionLog.open(log));
         } catch (Exception e) { e.printStackTrace(); }
 
         // THE FOLLOWING CODE IS DECOMISSIONED : MORE ELEGANT SOLUTION, POSSIBLY NOT THREAD SAFE?
@@ -275,6 +268,10 @@ public class Tester
 
     private void deinit()
     {
+        setWatchMode(false);
+        //a run still in progress would otherwise leave its trials running after the window has gone
+        runService.shutdown(2000);
+
         //write preferences to .preferences file
         try(BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(PREF_PATH), "utf-8")))
         {
@@ -383,6 +380,8 @@ public class Tester
                 }
 
                 defaultCommand();
+                //a running watcher still follows the sources of the previous test
+                if(watcher != null) setWatchMode(true);
                 break;
 
             case INPUT_DIR:
@@ -563,36 +562,16 @@ public class Tester
 
     private void writePref(String prefix, int i, String value, BufferedWriter out) throws IOException
     {
-        String pref = prefix + ".";
-        switch(i)
-        {
-            case I_WDIR:
-                pref += "workingDirectory=";
-                break;
-            case I_HWNUM:
-                pref += "homeworkNumber=";
-                break;
-            case I_TESTNAME:
-                pref += "testName=";
-                break;
-            case I_INDIR:
-                pref += "inputDirectory=";
-                break;
-            case I_OUTDIR:
-                pref += "outputDirectory=";
-                break;
-            case I_REFDIR:
-                pref += "referenceDirectory=";
-                break;
-            case I_TESTPATH:
-                pref += "testPath=";
-                break;
-        }
-        pref += value;
-        out.write(pref);
+        out.write(prefix + "." + PREF_NAMES[i] + "=" + value);
         out.newLine();
     }
 
+    /* returns the index in preferences of the named preference, or -1 if the name is not recognised */
+    static int prefIndex(String name)
+    {
+        return Arrays.asList(PREF_NAMES).indexOf(name);
+    }
+
     private String getField(Field f)
     {
         switch(f)
@@ -624,17 +603,113 @@ public class Tester
             return;
         }
 
-        command = "valgrind --tool=memcheck --leak-check=yes ./";
-        String testFileName = new File(preferences[I_TESTPATH]).getName();
-        command += CommandBuilder.getExecPath(testFileName.substring(0, testFileName.length()-4));
-        command += " <input>";
+        command = CommandBuilder.defaultCommand();
         gui.setCommand(command);
     }
 
-    private void runCommands(String comm)
+    private void runCommands(final String comm)
+    {
+        if(!runCommands(comm, null))
+            console.println("WARNING: A run is already in progress. Cancel it or wait for it to finish.");
+    }
+
+    /* builds the test and runs the trials with the given keys, or every trial if keys is null;
+       returns false without running anything if a run is already in progress */
+    private boolean runCommands(final String comm, Set<Integer> keys)
+    {
+        runOptions.setConcurrency(gui.getConcurrency());
+        runOptions.setTeeCompare(gui.isTeeCompare());
+        runOptions.setResultCache(gui.isResultCache());
+        runOptions.setValgrindMode(gui.getValgrindMode());
+        final RunOptions options = runOptions.copy();
+        options.setTrialKeys(keys);
+
+        //the run works from a snapshot of the preferences so that edits made during the run don't affect it
+        final String[] prefs = preferences.clone();
+        final RunControl control = new RunControl(new RunControl.ProgressListener() {
+            @Override
+            public void progress(final int done, final int total)
+            {
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        gui.setProgress(done, total);
+                    }
+                });
+            }
+        });
+
+        boolean accepted = runService.submit(control, new Runnable() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if(CommandBuilder.build(prefs, control, console))
+                        CommandBuilder.run(prefs, comm, options, control, console);
+                } finally
+                {
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            gui.setRunning(false);
+                        }
+                    });
+                }
+            }
+        });
+
+        if(accepted) gui.setRunning(true);
+        return accepted;
+    }
+
+    /* starts or stops watch mode, restarting it so that it follows the current preferences */
+    private void setWatchMode(boolean watching)
     {
-        CommandBuilder.build(preferences, console);
-        CommandBuilder.run(preferences, comm, console);
+        if(watcher != null)
+        {
+            try
+            {
+                watcher.close();
+            } catch(IOException e)
+            {
+                e.printStackTrace(console);
+            }
+            watcher = null;
+        }
+        if(!watching) return;
+
+        try
+        {
+            watcher = new SourceWatcher(preferences.clone(), new SourceWatcher.Listener() {
+                @Override
+                public boolean changed(final Set<Integer> keys)
+                {
+                    //runs are started from the event thread, as the run button does
+                    final boolean[] accepted = new boolean[1];
+                    try
+                    {
+                        EventQueue.invokeAndWait(new Runnable() {
+                            @Override
+                            public void run()
+                            {
+                                accepted[0] = !runService.isBusy() && runCommands(gui.getCommand(), keys);
+                            }
+                        });
+                    } catch(Exception e)
+                    {
+                        e.printStackTrace(console);
+                    }
+                    return accepted[0];
+                }
+            }, console);
+        } catch(IOException e)
+        {
+            console.println("ERROR: Failed to watch sources for changes: " + e.getMessage());
+            gui.setWatching(false);
+        }
     }
 
     private class TesterInterface extends JFrame
@@ -651,6 +726,14 @@ public class Tester
         private JComboBox<String> testName;
 
         private JTextField commandField;
+        private JSpinner concurrency;
+        private JCheckBox teeCompare;
+        private JCheckBox resultCache;
+        private JCheckBox watchSources;
+        private JComboBox<RunOptions.ValgrindMode> valgrindMode;
+        private JButton runButton;
+        private JButton cancelRunButton;
+        private JProgressBar progress;
 
         protected TesterInterface()
         {
@@ -712,6 +795,13 @@ public class Tester
 
             JPanel testPanel = new JPanel();
             testName = new JComboBox<>();
+            testName.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if(testName.getSelectedItem() != null)
+                        updateField(Field.TEST_NAME, testName.getSelectedItem().toString());
+                }
+            });
             testPanel.add(new JLabel("Test name:"));
             testPanel.add(testName);
             GridBagConstraints testConstraints = new GridBagConstraints();
@@ -760,6 +850,8 @@ public class Tester
                     updateField(Field.HOMEWORK_NUM, (String) hwNum.getSelectedItem());
 
                     defaultCommand();
+                    //watch mode follows the saved preferences
+                    if(watchSources.isSelected()) setWatchMode(true);
                 }
             });
             buttonPanel.add(restoreButton);
@@ -782,9 +874,25 @@ public class Tester
             execPanel.setLayout(new BorderLayout());
             execPanel.add(new JLabel("Command:"), BorderLayout.NORTH);
             execPanel.add(commandField, BorderLayout.CENTER);
+            valgrindMode = new JComboBox<>(RunOptions.ValgrindMode.values());
+            valgrindMode.setSelectedItem(runOptions.getValgrindMode());
+            execPanel.add(valgrindMode, BorderLayout.EAST);
             JPanel execButPanel = new JPanel();
             JButton defCommand = new JButton("Default command");
             JButton saveCommand = new JButton("Save and run");
+            runButton = saveCommand;
+            cancelRunButton = new JButton("Cancel run");
+            cancelRunButton.setEnabled(false);
+            cancelRunButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    console.println("Cancelling run...");
+                    runService.cancel();
+                }
+            });
+            progress = new JProgressBar();
+            progress.setStringPainted(true);
+            progress.setString("Idle");
             defCommand.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e)
@@ -798,9 +906,26 @@ public class Tester
                     runCommands(commandField.getText());
                 }
             });
+            concurrency = new JSpinner(new SpinnerNumberModel(runOptions.getConcurrency(), 1, 256, 1));
             execButPanel.setLayout(new FlowLayout(FlowLayout.CENTER));
+            execButPanel.add(new JLabel("Parallel trials:"));
+            execButPanel.add(concurrency);
+            teeCompare = new JCheckBox("Compare while running", runOptions.isTeeCompare());
+            execButPanel.add(teeCompare);
+            resultCache = new JCheckBox("Reuse cached results", runOptions.isResultCache());
+            execButPanel.add(resultCache);
+            watchSources = new JCheckBox("Watch sources");
+            watchSources.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    setWatchMode(watchSources.isSelected());
+                }
+            });
+            execButPanel.add(watchSources);
             execButPanel.add(defCommand);
             execButPanel.add(saveCommand);
+            execButPanel.add(cancelRunButton);
+            execButPanel.add(progress);
             execPanel.add(execButPanel, BorderLayout.SOUTH);
 
             GridBagConstraints execConstraints = new GridBagConstraints();
@@ -846,6 +971,60 @@ public class Tester
             commandField.setText(s);
         }
 
+        protected void setRunning(boolean running)
+        {
+            runButton.setEnabled(!running);
+            cancelRunButton.setEnabled(running);
+            if(running)
+            {
+                progress.setIndeterminate(true);
+                progress.setString("Building...");
+            }
+            else
+            {
+                progress.setIndeterminate(false);
+                progress.setString("Idle");
+            }
+        }
+
+        protected void setProgress(int done, int total)
+        {
+            progress.setIndeterminate(false);
+            progress.setMaximum(total);
+            progress.setValue(done);
+            progress.setString("Trial " + done + " of " + total);
+        }
+
+        protected boolean isResultCache()
+        {
+            return resultCache.isSelected();
+        }
+
+        protected boolean isTeeCompare()
+        {
+            return teeCompare.isSelected();
+        }
+
+        protected String getCommand()
+        {
+            return commandField.getText();
+        }
+
+        protected void setWatching(boolean watching)
+        {
+            watchSources.setSelected(watching);
+        }
+
+        protected RunOptions.ValgrindMode getValgrindMode()
+        {
+            return (RunOptions.ValgrindMode) valgrindMode.getSelectedItem();
+        }
+
+        protected int getConcurrency()
+        {
+            return (Integer) concurrency.getValue();
+        }
+
         protected void setTestList(String[] tests)
         {
             DefaultComboBoxModel<String> newModel = new DefaultComboBoxModel(tests);
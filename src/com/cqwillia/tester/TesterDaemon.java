@@ -0,0 +1,432 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* TesterDaemon keeps one tester JVM running so that an editor or a script can run tests without
+   paying for JVM startup, class loading and a first scan of the test directories every time. The
+   corpus indexes, the JIT-compiled code and the build's object cache all stay warm between runs,
+   so a run through the daemon starts in milliseconds:
+
+     java -cp src com.cqwillia.tester.TestRunner --daemon [--socket <path>]
+     java -cp src com.cqwillia.tester.TestRunner --client [--socket <path>] <headless arguments>
+
+   The daemon listens on a Unix domain socket. Its protocol is line based and in UTF-8, so that an
+   editor can also speak it directly. A client sends the arguments of a headless run, one per line,
+   followed by an empty line, and the daemon streams back lines tagged by their first word:
+     log <line>    progress, which a headless run prints to standard error
+     out <line>    the JSON summary or batch table, which a headless run prints to standard output
+     exit <code>   the exit code of the run, as for HeadlessRunner; always the last line
+   The requests --ping and --stop, on their own, are answered with "exit 0"; --stop shuts the
+   daemon down once the run in progress has finished.
+
+   Runs are executed one at a time, since they share the scripts directory, and a run is cancelled
+   if its client disconnects. Relative paths are resolved against the directory the daemon was
+   started in, as for a headless run started there; --watch cannot be used through the daemon.
+   Unless --socket names another, the socket is created in a directory under java.io.tmpdir that
+   only its owner may enter, with a name derived from the daemon's working directory, so that a
+   client started in the same directory finds it. A client that finds no daemon runs the test
+   itself.
+ */
+final class TesterDaemon
+{
+    static final String PING = "--ping";
+    static final String STOP = "--stop";
+
+    private final ServerSocketChannel server;
+    private final ReentrantLock runLock = new ReentrantLock();
+    private volatile boolean stopping;
+
+    private TesterDaemon(ServerSocketChannel server)
+    {
+        this.server = server;
+    }
+
+    /* serves requests on the socket until a client asks the daemon to stop */
+    static int serve(String[] args)
+    {
+        PrintStream console = System.err;
+        String given = null;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("--daemon")) continue;
+            if(args[i].equals("--socket") && i + 1 < args.length) given = args[++i];
+            else
+            {
+                console.println("ERROR: Unrecognised daemon argument " + args[i] + ".");
+                return HeadlessRunner.EXIT_USAGE;
+            }
+        }
+
+        final Path socket;
+        try
+        {
+            socket = socketPath(given);
+            UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+            if(Files.exists(socket, LinkOption.NOFOLLOW_LINKS))
+            {
+                if(alive(address))
+                {
+                    console.println("ERROR: A tester daemon is already listening on " + socket + ".");
+                    return HeadlessRunner.EXIT_RUN_ERROR;
+                }
+                //left behind by a daemon that did not shut down cleanly
+                Files.delete(socket);
+            }
+
+            try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+            {
+                server.bind(address);
+                try
+                {
+                    Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+                } catch(UnsupportedOperationException u) {}
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Files.deleteIfExists(socket);
+                        } catch(IOException e) {}
+                    }
+                }));
+
+                warm(console);
+                console.println("Tester daemon listening on " + socket + ".");
+                new TesterDaemon(server).accept();
+            } finally
+            {
+                Files.deleteIfExists(socket);
+            }
+        } catch(IOException e)
+        {
+            console.println("ERROR: Failed to run the tester daemon: " + e.getMessage());
+            return HeadlessRunner.EXIT_RUN_ERROR;
+        }
+        console.println("Tester daemon stopped.");
+        return HeadlessRunner.EXIT_SUCCESS;
+    }
+
+    /* indexes the directories of the saved preferences in the background, ready for the first run */
+    private static void warm(PrintStream console)
+    {
+        if(!new File("d.PREFERENCES").isFile()) return;
+        String[] prefs = new String[7];
+        String[] defaults = new String[7];
+        for(int i = 0; i < 7; i++)
+        {
+            prefs[i] = "";
+            defaults[i] = "";
+        }
+        try
+        {
+            HeadlessRunner.readConfig("d.PREFERENCES", defaults, prefs);
+        } catch(IOException e)
+        {
+            console.println("WARNING: Failed to read d.PREFERENCES: " + e.getMessage());
+            return;
+        }
+        List<File> dirs = new ArrayList<>();
+        for(int i : new int[]{ Tester.I_INDIR, Tester.I_OUTDIR, Tester.I_REFDIR })
+        {
+            String dir = prefs[i].isEmpty() ? defaults[i] : prefs[i];
+            if(!dir.isEmpty()) dirs.add(new File(dir));
+        }
+        CorpusIndex.prefetch(dirs.toArray(new File[0]));
+    }
+
+    private void accept() throws IOException
+    {
+        while(true)
+        {
+            final SocketChannel channel;
+            try
+            {
+                channel = server.accept();
+            } catch(AsynchronousCloseException e)
+            {
+                if(stopping) return;
+                throw e;
+            }
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    handle(channel);
+                }
+            }, "tester-daemon-client");
+            t.start();
+        }
+    }
+
+    private void handle(SocketChannel channel)
+    {
+        try(SocketChannel c = channel)
+        {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c),
+                    StandardCharsets.UTF_8));
+            List<String> request = new ArrayList<>();
+            String line;
+            while((line = in.readLine()) != null && !line.isEmpty())
+            {
+                request.add(line);
+            }
+            if(line == null) return;
+
+            final RunControl control = new RunControl();
+            Reply reply = new Reply(c, control);
+            //a client sends nothing after its request, so this read returns only once the client hangs up
+            Thread hangup = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if(in.read() < 0) control.cancel();
+                    } catch(IOException e)
+                    {
+                        control.cancel();
+                    }
+                }
+            }, "tester-daemon-hangup");
+            hangup.setDaemon(true);
+            hangup.start();
+            if(request.size() == 1 && request.get(0).equals(PING))
+            {
+                reply.send("exit", String.valueOf(HeadlessRunner.EXIT_SUCCESS));
+                return;
+            }
+            PrintStream console = new PrintStream(new TaggedStream(reply, "log"), true, StandardCharsets.UTF_8);
+            PrintStream out = new PrintStream(new TaggedStream(reply, "out"), true, StandardCharsets.UTF_8);
+            if(request.contains("--watch"))
+            {
+                console.println("ERROR: --watch cannot be used through the daemon; run it with --headless.");
+                reply.send("exit", String.valueOf(HeadlessRunner.EXIT_USAGE));
+                return;
+            }
+
+            if(!runLock.tryLock())
+            {
+                console.println("Waiting for the run in progress to finish.");
+                runLock.lock();
+            }
+            int exit;
+            try
+            {
+                if(request.size() == 1 && request.get(0).equals(STOP))
+                {
+                    stopping = true;
+                    reply.send("exit", String.valueOf(HeadlessRunner.EXIT_SUCCESS));
+                    server.close();
+                    return;
+                }
+                exit = HeadlessRunner.run(request.toArray(new String[0]), console, out, control);
+            } catch(RuntimeException e)
+            {
+                console.println("ERROR: The run failed unexpectedly:");
+                e.printStackTrace(console);
+                exit = HeadlessRunner.EXIT_RUN_ERROR;
+            } finally
+            {
+                runLock.unlock();
+            }
+            console.close();
+            out.close();
+            reply.send("exit", String.valueOf(exit));
+        } catch(IOException e)
+        {
+            //the client has gone; a run it started has already been cancelled
+        }
+    }
+
+    /* sends the arguments to the daemon and relays its reply; runs the test in this process if no
+       daemon is listening */
+    static int client(String[] args)
+    {
+        PrintStream console = System.err;
+        String given = null;
+        List<String> request = new ArrayList<>();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("--client")) continue;
+            if(args[i].equals("--socket") && i + 1 < args.length) given = args[++i];
+            else if(args[i].indexOf('\n') >= 0 || args[i].indexOf('\r') >= 0)
+            {
+                console.println("ERROR: Arguments sent to the daemon cannot contain line breaks.");
+                return HeadlessRunner.EXIT_USAGE;
+            }
+            else request.add(args[i]);
+        }
+
+        Path socket;
+        SocketChannel channel;
+        try
+        {
+            socket = socketPath(given);
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch(IOException e)
+        {
+            if(request.contains(PING) || request.contains(STOP))
+            {
+                console.println("ERROR: No tester daemon is listening.");
+                return HeadlessRunner.EXIT_RUN_ERROR;
+            }
+            console.println("WARNING: No tester daemon is listening; running the test in this process.");
+            return HeadlessRunner.main(request.toArray(new String[0]));
+        }
+
+        try(SocketChannel c = channel)
+        {
+            Writer w = new OutputStreamWriter(Channels.newOutputStream(c), StandardCharsets.UTF_8);
+            for(String arg : request)
+            {
+                w.write(arg);
+                w.write('\n');
+            }
+            w.write('\n');
+            w.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c),
+                    StandardCharsets.UTF_8));
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                int space = line.indexOf(' ');
+                String tag = space < 0 ? line : line.substring(0, space);
+                String text = space < 0 ? "" : line.substring(space + 1);
+                if(tag.equals("log")) console.println(text);
+                else if(tag.equals("out")) System.out.println(text);
+                else if(tag.equals("exit")) return Integer.parseInt(text);
+            }
+        } catch(IOException | NumberFormatException e)
+        {
+            console.println("ERROR: Lost the connection to the tester daemon: " + e.getMessage());
+            return HeadlessRunner.EXIT_RUN_ERROR;
+        }
+        console.println("ERROR: The tester daemon closed the connection before the run finished.");
+        return HeadlessRunner.EXIT_RUN_ERROR;
+    }
+
+    /* returns the socket named on the command line, or the default socket for the working directory */
+    static Path socketPath(String given) throws IOException
+    {
+        if(given != null) return Paths.get(given).toAbsolutePath();
+
+        String user = System.getProperty("user.name");
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "cs104-tester-" + user);
+        try
+        {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------")));
+            //a directory someone else made in the shared temporary directory would let them reach the socket
+            if(!Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS).getName().equals(user))
+                throw new IOException(dir + " belongs to another user");
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+        } catch(UnsupportedOperationException u)
+        {
+            Files.createDirectories(dir);
+        }
+        String cwd = System.getProperty("user.dir");
+        return dir.resolve(Hashes.of(cwd.getBytes(StandardCharsets.UTF_8)).substring(0, 16) + ".sock");
+    }
+
+    private static boolean alive(UnixDomainSocketAddress address)
+    {
+        try
+        {
+            SocketChannel.open(address).close();
+            return true;
+        } catch(IOException e)
+        {
+            return false;
+        }
+    }
+
+    /* The reply to one request. Lines from any thread are written whole; once a write fails the
+       client has gone, so the run is cancelled and everything after is dropped. The channel is
+       written directly, as its output stream would wait for the read blocked on it. */
+    private static final class Reply
+    {
+        private final SocketChannel channel;
+        private final RunControl control;
+        private boolean broken;
+
+        Reply(SocketChannel channel, RunControl control)
+        {
+            this.channel = channel;
+            this.control = control;
+        }
+
+        synchronized void send(String tag, String text)
+        {
+            if(broken) return;
+            try
+            {
+                ByteBuffer line = ByteBuffer.wrap((tag + " " + text + "\n").getBytes(StandardCharsets.UTF_8));
+                while(line.hasRemaining())
+                {
+                    channel.write(line);
+                }
+            } catch(IOException e)
+            {
+                broken = true;
+                control.cancel();
+            }
+        }
+    }
+
+    /* Sends each complete line written to it as one line of the reply, under its tag. */
+    private static final class TaggedStream extends OutputStream
+    {
+        private final Reply reply;
+        private final String tag;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        TaggedStream(Reply reply, String tag)
+        {
+            this.reply = reply;
+            this.tag = tag;
+        }
+
+        @Override
+        public synchronized void write(int b)
+        {
+            if(b == '\n') sendLine();
+            else if(b != '\r') line.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+        {
+            for(int i = off; i < off + len; i++)
+            {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if(line.size() > 0) sendLine();
+        }
+
+        private void sendLine()
+        {
+            reply.send(tag, line.toString(StandardCharsets.UTF_8));
+            line.reset();
+        }
+    }
+}
@@ -9,76 +9,55 @@ import java.util.*;
 
 final class TesterLogic {
 
-    /* throws IOException when creating new output files */
+    /* throws IOException when creating new output files
+       Each generated trial is stored in trials under its integer key. Callers pass a sorted map
+       so that trials are reported in key order however they end up being executed.
+       The template has been compiled once by the caller and is only applied here. If it uses
+       <ref>, trials whose key has no reference file in refDir are skipped with a warning.
+     */
     @SuppressWarnings("null") //null-checking is performed on inDir and outDir by Tester
-    static void parseCommand(String c, File inDir, File outDir, PrintStream console, Map<String, File> commands)
-            throws AngleExpressionException, IOException
+    static void parseCommand(CommandTemplate template, File inDir, File outDir, File refDir, PrintStream console,
+                             Map<Integer, Trial> trials) throws IOException
     {
-        File[] inFiles = inDir.listFiles();
-        File[] outFiles = outDir.listFiles();
+        Map<Integer, File> refs = template.uses(CommandTemplate.Placeholder.REF) ? referenceFiles(refDir, console) : null;
+        CorpusIndex outIndex = CorpusIndex.of(outDir);
         //custom test cases where there may be no need for an input file
-        if(inFiles == null)
+        if(!inDir.isDirectory())
         {
-            if(c.contains("<input>"))
+            if(template.uses(CommandTemplate.Placeholder.INPUT))
             {
                 console.println("ERROR: Command contains <input> token, but input directory is empty.");
                 return;
             }
-            if(outFiles == null)
+            Map<Integer, File> outKeys = outIndex.keys(console, "Output");
+            if(outKeys.isEmpty())
             {
                 File defOutput = new File(outDir + System.getProperty("file.separator") + "output_01.txt");
                 defOutput.createNewFile();
+                outIndex.add(defOutput);
                 console.println("New output file output_01.txt generated for command without input file.");
-                commands.put(generateCommand(c, null, Paths.get(defOutput.getCanonicalPath())), defOutput);
+                addTrial(template, refs, 1, null, defOutput, console, trials);
                 return;
             }
-            commands.put(generateCommand(c, null, Paths.get(outFiles[0].getCanonicalPath())), outFiles[0]);
+            Map.Entry<Integer, File> first = outKeys.entrySet().iterator().next();
+            addTrial(template, refs, first.getKey(), null, first.getValue(), console, trials);
+            return;
         }
 
-        //define new map subclasses to issue warnings when filenames with duplicate numbers are added
-        Map<Integer, File> inKeys = new HashMap<Integer, File>()
-        {
-            @Override
-            public File put(Integer key, File value)
-            {
-                if(containsKey(key))
-                    console.println("WARNING: Input file " + value.getName() + " represents the addition of a duplicate"
-                     +" key and will override input file " + get(key).getName() + ".");
-                return super.put(key, value);
-            }
-        };
-
-        Map<Integer, File> outKeys = new HashMap<Integer, File>()
-        {
-            @Override
-            public File put(Integer key, File value)
-            {
-                if(containsKey(key))
-                    console.println("WARNING: Output file " + value.getName() + " represents the addition of a duplicate"
-                    +" key and will override output file " + get(key).getName() + ".");
-                return super.put(key, value);
-            }
-        };
-
-        //read integer keys from file name into maps
-        readKeys(inFiles, inKeys, console);
-        readKeys(outFiles, outKeys, console);
+        //both directories are indexed by key, in key order, warning about duplicate keys
+        Map<Integer, File> inKeys = CorpusIndex.of(inDir).keys(console, "Input");
+        Map<Integer, File> outKeys = outIndex.keys(console, "Output");
 
         //iterate over every key in the input domain
         for(Map.Entry<Integer, File> entry : inKeys.entrySet())
         {
             Integer nextKey = entry.getKey();
-            File nextInFile = inKeys.get(nextKey);
+            File nextInFile = entry.getValue();
             File nextOutFile = outKeys.get(nextKey);
             //if an output file has already been created, pair the two files and generate a command for the pair
-            if(outKeys.containsKey(nextKey)) {
-                try {
-                    commands.put(generateCommand(c, Paths.get(nextInFile.getCanonicalPath()),
-                            Paths.get(nextOutFile.getCanonicalPath())), nextOutFile);
-                } catch (AngleExpressionException e) {
-                    console.println(e.getMessage());
-                    throw e;
-                }
+            if(nextOutFile != null)
+            {
+                addTrial(template, refs, nextKey, nextInFile, nextOutFile, console, trials);
             }
             //if there is no paired output file, generate a new output file "output_<key>" and pair them
             else
@@ -89,17 +68,10 @@ final class TesterLogic {
                 {
                     if(file.createNewFile())
                     {
+                        outIndex.add(file);
                         console.println("File " + file.getName() + " has been created as a paired output file to "
-                                + inKeys.get(nextKey) + ".");
-                        try{
-                            commands.put(generateCommand(c, Paths.get(nextInFile.getCanonicalPath()),
-                                    Paths.get(file.getCanonicalPath())), file);
-                        }
-                        catch(AngleExpressionException e)
-                        {
-                            console.println(e.getMessage());
-                            throw e;
-                        }
+                                + nextInFile + ".");
+                        addTrial(template, refs, nextKey, nextInFile, file, console, trials);
                     }
                     else
                         console.println("File " + file.getName() + " already exists. This is a bug! Please report "
@@ -114,87 +86,56 @@ final class TesterLogic {
         }
     }
 
-    private static String generateCommand(String c, Path ifile, Path ofile)
-            throws AngleExpressionException {
-        StringBuilder command = new StringBuilder();
-
-        //parse for opening angle brackets
-        for (int i = 0; i < c.length(); i++) {
-            char curr = c.charAt(i);
-
-            //unpaired closing angle bracket
-            if (curr == '>')
-                throw new UnpairedAngleException(UnpairedAngleException.UnpairType.CLOSING);
-
-            //any non angle-bracket character remains unchanged
-            if (curr != '<') {
-                command.append(curr);
-                continue;
-            }
-
-            //generate the expression between angle brackets
-            StringBuilder expr = new StringBuilder();
-            i++; //moves to the character after the opening angle bracket
-            try {
-                //traverse the string to find the closing angle bracket
-                for (; c.charAt(i) != '>'; i++) {
-                    if (c.charAt(i) == '<')
-                        throw new NestedAngleException();
-
-                    expr.append(c.charAt(i));
-                }
-            } catch (IndexOutOfBoundsException out) {
-                throw new UnpairedAngleException(UnpairedAngleException.UnpairType.OPENING);
-            }
-
-            Path userPath = Paths.get(System.getProperty("user.dir"));
-            if(expr.toString().equals("input")) command.append(userPath.relativize(ifile));
-            else if(expr.toString().equals("output")) command.append(userPath.relativize(ofile));
-            else
-            {
-                throw new InvalidContentsException();
-            }
+    private static void addTrial(CommandTemplate template, Map<Integer, File> refs, int key, File in, File out,
+                                 PrintStream console, Map<Integer, Trial> trials)
+    {
+        File ref = refs == null ? null : refs.get(key);
+        if(refs != null && ref == null)
+        {
+            console.println("WARNING: Command contains <ref> token, but there is no reference file for trial "
+                    + key + ". It will not be run.");
+            return;
         }
+        Trial t = new Trial(key, template.apply(key, in, out, ref), in, out);
+        t.reference = ref;
+        trials.put(key, t);
+    }
 
-        return command.toString();
+    static Map<Integer, Comparison> compareResults(File outDir, File refDir, PrintStream console)
+    {
+        return compareResults(outDir, refDir, true, console);
+    }
+
+    /* Compares every output file against the reference file with the same key, in key order.
+       Each pair is read once, stopping at the first difference; when mapped is set, pairs of
+       equal size are first checked for identical bytes through memory-mapped windows.
+       Returns the comparison made for each key, in key order.
+     */
+    static Map<Integer, Comparison> compareResults(File outDir, File refDir, boolean mapped, PrintStream console)
+    {
+        return compareResults(outDir, refDir, mapped, null, DiffEngine.DEFAULT_HUNKS, console);
     }
 
-    static void compareResults(File outDir, File refDir, PrintStream console)
+    /* As above, but only compares the files whose key is in keys, unless keys is null. The first
+       hunks differences of each failed comparison are printed and kept with it.
+     */
+    static Map<Integer, Comparison> compareResults(File outDir, File refDir, boolean mapped, Set<Integer> keys,
+                                                   int hunks, PrintStream console)
     {
-        File[] outFiles = outDir.listFiles();
-        File[] refFiles = refDir.listFiles();
-        if(refFiles == null)
+        Map<Integer, Comparison> results = new TreeMap<>();
+        if(!refDir.isDirectory())
         {
             console.println("No reference files available.");
-            return;
+            return results;
         }
 
-        Map<Integer, File> outKeys = new HashMap<Integer, File>()
-        {
-            @Override
-            public File put(Integer key, File value)
-            {
-                if(containsKey(key))
-                    console.println("WARNING: Output file " + value.getName() + " represents the addition of a duplicate"
-                            +" key and will override output file " + get(key).getName() + "in comparison to reference.");
-                return super.put(key, value);
-            }
-        };
-
-        Map<Integer, File> refKeys = new HashMap<Integer, File>()
+        Map<Integer, File> outKeys = CorpusIndex.of(outDir).keys(console, "Output");
+        Map<Integer, File> refKeys = referenceFiles(refDir, console);
+        if(keys != null)
         {
-            @Override
-            public File put(Integer key, File value)
-            {
-                if(containsKey(key))
-                    console.println("WARNING: Reference file " + value.getName() + " represents the addition of a duplicate"
-                            +" key and will override reference file " + get(key).getName() + ".");
-                return super.put(key, value);
-            }
-        };
-
-        readKeys(outFiles, outKeys, console);
-        readKeys(refFiles, refKeys, console);
+            outKeys.keySet().retainAll(keys);
+            refKeys.keySet().retainAll(keys);
+        }
 
         //notify the user of missing output files or missing reference files
         for(Integer i : outKeys.keySet())
@@ -216,12 +157,13 @@ final class TesterLogic {
                 continue;
             }
 
-            BufferedReader readOut;
-            BufferedReader readRef;
+            Comparison result;
             try
             {
-                readOut = new BufferedReader(new InputStreamReader(new FileInputStream(outKeys.get(i))));
-                readRef = new BufferedReader(new InputStreamReader(new FileInputStream(refKeys.get(i))));
+                long start = System.nanoTime();
+                result = ResultComparator.compare(outKeys.get(i), refKeys.get(i), mapped);
+                TesterMetrics.COMPARISON.compared(result.passed, outKeys.get(i).length() + refKeys.get(i).length(),
+                        System.nanoTime() - start);
             }
             catch (IOException e)
             {
@@ -230,71 +172,82 @@ final class TesterLogic {
                 continue;
             }
 
-            int refLines = 0;
-            int outLines = 0;
-            boolean correct = true;
-            try
-            {
-                String nextRef;
-                while((nextRef = readRef.readLine()) != null)
-                {
-                    if(!nextRef.equals(readOut.readLine())) correct = false;
-                    if(!nextRef.isEmpty()) refLines++;
-                }
-            } catch(IOException e) {}
-            try
-            {
-                readOut.close();
-                readOut = new BufferedReader(new InputStreamReader(new FileInputStream(outKeys.get(i))));
-                String nextOut;
-                while((nextOut = readOut.readLine()) != null)
-                {
-                    if(!nextOut.isEmpty()) outLines++;
-                }
-                if(outLines != refLines) correct = false;
+            SessionLog.trial(i, -1);
+            console.println(describe(i, outKeys.get(i), refKeys.get(i), result));
+            if(!result.passed) printDiff(outKeys.get(i), refKeys.get(i), result, hunks, console);
+            SessionLog.endTrial();
+            results.put(i, result);
+        }
+        return results;
+    }
 
-                String result = "Trial number " + i.toString() + (correct ? " succeeded" : " failed") + " after comparison" +
-                        " between files " + outKeys.get(i) + " and " + refKeys.get(i);
+    static String describe(int key, File out, File ref, Comparison result)
+    {
+        String message = "Trial number " + key + (result.passed ? " succeeded" : " failed") +
+                " after comparison between files " + out + " and " + ref;
+        if(!result.passed) message += " (first difference at line " + result.firstDifference + ")";
+        return message;
+    }
 
-                console.println(result);
-                readRef.close();
-                readOut.close();
-            } catch(IOException e) {}
+    /* finds the first hunks differences of a failed comparison, keeps them with it and prints them */
+    static void printDiff(File out, File ref, Comparison result, int hunks, PrintStream console)
+    {
+        if(hunks <= 0 || !out.isFile()) return;
+        try
+        {
+            result.hunks = DiffEngine.diff(out, ref, hunks);
+        } catch(IOException e)
+        {
+            console.println("WARNING: Failed to find the differences between " + out + " and " + ref + ".");
+            return;
         }
+        if(result.hunks.isEmpty()) return;
+
+        StringBuilder diff = new StringBuilder("Differences from reference " + ref.getName() + " to output "
+                + out.getName() + ":");
+        for(DiffEngine.Hunk h : result.hunks)
+        {
+            diff.append("\n    ").append(h.header());
+            for(String line : h.lines)
+            {
+                diff.append("\n    ").append(line);
+            }
+            if(h.omitted > 0) diff.append("\n    ... ").append(h.omitted).append(" more lines");
+            if(h.unbounded)
+                diff.append("\n    The files differ for too many lines here to be aligned again; "
+                        + "later differences are not shown.");
+        }
+        if(result.hunks.size() == hunks && !result.hunks.get(hunks - 1).unbounded)
+            diff.append("\n    Only the first ").append(hunks).append(" differences are shown.");
+        //printed at once so that the hunk is not interleaved with other trials' output
+        console.println(diff);
+    }
+
+    /* returns the reference files in refDir by key, in key order, warning about duplicate keys */
+    static Map<Integer, File> referenceFiles(File refDir, PrintStream console)
+    {
+        return CorpusIndex.of(refDir).keys(console, "Reference");
     }
 
-    private static void readKeys(File[] files, Map<Integer, File> keys, PrintStream console)
+    /* returns the integer code of a single file, or null if its name contains no digits */
+    static Integer readKey(File f)
     {
-        //assign each file a code based on the first collection of less than 9 digits in its filename
-        if(files == null) return;
-        for(File f : files)
+        String filename = f.getName();
+        StringBuilder filecode = new StringBuilder(); //stores each digit of the first number in the file name
+        for(int i = 0; i < filename.length(); i++) //traverse each character of the file name
         {
-            if(!f.isFile()) continue; //disregard subdirectories
-            String filename = f.getName();
-            StringBuilder filecode = new StringBuilder(); //stores each digit of the first number in the file name
-            for(int i = 0; i < filename.length(); i++) //traverse each character of the file name
+            if(Character.isDigit(filename.charAt(i))) //when a digit is found, loop to the end of the number
             {
-                if(Character.isDigit(filename.charAt(i))) //when a digit is found, loop to the end of the number
+                while(i < filename.length() && Character.isDigit(filename.charAt(i)) && filecode.length() < 9)
                 {
-                    while(i < filename.length() && Character.isDigit(filename.charAt(i)) && filecode.length() < 9)
-                    {
-                        filecode.append(filename.charAt(i));
-                        i++;
-                    }
-                    break; //only stores first contiguous number in filename
+                    filecode.append(filename.charAt(i));
+                    i++;
                 }
+                break; //only stores first contiguous number in filename
             }
-
-            //if no digits in the filename, warn the user and proceed to the next file
-            if(filecode.length() == 0)
-            {
-                console.println("WARNING: File " + f.getName() + " contains no digits in the filename, and " +
-                        "thus cannot be coded. It will not be added to test file commands.");
-                continue;
-            }
-
-            Integer code = Integer.parseInt(filecode.toString());
-            keys.put(code, f);
         }
+
+        if(filecode.length() == 0) return null;
+        return Integer.parseInt(filecode.toString());
     }
 }
@@ -0,0 +1,439 @@
+package com.cqwillia.tester;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Cameron Williams
+ * @version 0.0.2
+ * @since 0.0.2
+ *
+ * <code>TesterMetrics</code> counts what the tester does over the life of its process, for
+ * watching a grading host with jconsole or a JMX scraper rather than by reading its logs. Builds,
+ * runs and comparisons each have an MXBean, registered on the platform MBean server by
+ * {@link #register()} under <code>com.cqwillia.tester:type=Build</code>, <code>type=Run</code>
+ * and <code>type=Comparison</code>. Every counter only ever grows; durations are kept in
+ * histograms and read as {@link Latency} snapshots.
+ */
+public final class TesterMetrics
+{
+    public static final String DOMAIN = "com.cqwillia.tester";
+
+    /**
+     * Builds made by {@link CommandBuilder#build(String[], RunOptions, RunControl, java.io.PrintStream)}.
+     * Compile latency covers only the objects that were compiled, not those restored from the
+     * object cache.
+     */
+    public interface BuildMXBean
+    {
+        long getBuilds();
+        long getFailedBuilds();
+        long getObjectsCompiled();
+        long getObjectCacheHits();
+        long getLinks();
+        long getLinksSkipped();
+        Latency getBuildLatency();
+        Latency getCompileLatency();
+        Latency getLinkLatency();
+    }
+
+    /**
+     * Runs made by {@link CommandBuilder#run(String[], String, RunOptions, RunControl, java.io.PrintStream)}.
+     * Trials finished include the valgrind checks of a two-phase run, and the trials restored from
+     * the result cache, which are also counted as cached and are left out of the trial latency;
+     * the outcome counters count each trial of a finished run once. A trial has timed out when the watchdog killed it for
+     * its time or CPU limit, and counts among the trials over a limit as well.
+     */
+    public interface RunMXBean
+    {
+        long getRuns();
+        long getCancelledRuns();
+        long getTrialsFinished();
+        long getTrialsCached();
+        long getTrialsPassed();
+        long getTrialsFailed();
+        long getTrialsUnchecked();
+        long getTrialsTimedOut();
+        long getTrialsOverLimit();
+        long getValgrindErrors();
+        Latency getRunLatency();
+        Latency getTrialLatency();
+    }
+
+    /**
+     * Output files compared against their references after the trials have run. Bytes compared
+     * are the sizes of both files, although a comparison stops at the first difference.
+     */
+    public interface ComparisonMXBean
+    {
+        long getComparisons();
+        long getFailedComparisons();
+        long getBytesCompared();
+        double getThroughputMBPerSecond();
+        Latency getComparisonLatency();
+    }
+
+    /**
+     * A snapshot of one latency histogram. Percentiles are accurate to within a factor of two.
+     */
+    public static final class Latency
+    {
+        private final long count;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        @ConstructorProperties({"count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis"})
+        public Latency(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis,
+                       double maxMillis)
+        {
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        static Latency of(LatencyHistogram h)
+        {
+            long n = h.count();
+            return new Latency(n, n == 0 ? 0 : millis(h.totalNanos() / n), millis(h.percentileNanos(0.5)),
+                    millis(h.percentileNanos(0.9)), millis(h.percentileNanos(0.99)), millis(h.maxNanos()));
+        }
+
+        private static double millis(long nanos)
+        {
+            return nanos / 1e6;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getMeanMillis()
+        {
+            return meanMillis;
+        }
+
+        public double getP50Millis()
+        {
+            return p50Millis;
+        }
+
+        public double getP90Millis()
+        {
+            return p90Millis;
+        }
+
+        public double getP99Millis()
+        {
+            return p99Millis;
+        }
+
+        public double getMaxMillis()
+        {
+            return maxMillis;
+        }
+    }
+
+    static final Build BUILD = new Build();
+    static final Run RUN = new Run();
+    static final Compare COMPARISON = new Compare();
+
+    private static boolean registered;
+
+    private TesterMetrics() {}
+
+    /**
+     * Registers the three MXBeans on the platform MBean server. Calling it again does nothing.
+     *
+     * @return whether the MXBeans are registered
+     */
+    public static synchronized boolean register()
+    {
+        if(registered) return true;
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(BUILD, new ObjectName(DOMAIN + ":type=Build"));
+            server.registerMBean(RUN, new ObjectName(DOMAIN + ":type=Run"));
+            server.registerMBean(COMPARISON, new ObjectName(DOMAIN + ":type=Comparison"));
+            registered = true;
+        } catch(JMException | SecurityException e)
+        {
+            System.err.println("WARNING: Failed to register the tester's metrics with JMX: " + e.getMessage());
+        }
+        return registered;
+    }
+
+    static final class Build implements BuildMXBean
+    {
+        private final AtomicLong builds = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong compiled = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong links = new AtomicLong();
+        private final AtomicLong linksSkipped = new AtomicLong();
+        private final LatencyHistogram buildLatency = new LatencyHistogram();
+        private final LatencyHistogram compileLatency = new LatencyHistogram();
+        private final LatencyHistogram linkLatency = new LatencyHistogram();
+
+        void built(boolean succeeded, long nanos)
+        {
+            builds.incrementAndGet();
+            if(!succeeded) failed.incrementAndGet();
+            buildLatency.record(nanos);
+        }
+
+        void compiled(long nanos)
+        {
+            compiled.incrementAndGet();
+            compileLatency.record(nanos);
+        }
+
+        void cacheHit()
+        {
+            cacheHits.incrementAndGet();
+        }
+
+        void linked(long nanos)
+        {
+            links.incrementAndGet();
+            linkLatency.record(nanos);
+        }
+
+        void linkSkipped()
+        {
+            linksSkipped.incrementAndGet();
+        }
+
+        @Override
+        public long getBuilds()
+        {
+            return builds.get();
+        }
+
+        @Override
+        public long getFailedBuilds()
+        {
+            return failed.get();
+        }
+
+        @Override
+        public long getObjectsCompiled()
+        {
+            return compiled.get();
+        }
+
+        @Override
+        public long getObjectCacheHits()
+        {
+            return cacheHits.get();
+        }
+
+        @Override
+        public long getLinks()
+        {
+            return links.get();
+        }
+
+        @Override
+        public long getLinksSkipped()
+        {
+            return linksSkipped.get();
+        }
+
+        @Override
+        public Latency getBuildLatency()
+        {
+            return Latency.of(buildLatency);
+        }
+
+        @Override
+        public Latency getCompileLatency()
+        {
+            return Latency.of(compileLatency);
+        }
+
+        @Override
+        public Latency getLinkLatency()
+        {
+            return Latency.of(linkLatency);
+        }
+    }
+
+    static final class Run implements RunMXBean
+    {
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong cancelled = new AtomicLong();
+        private final AtomicLong trials = new AtomicLong();
+        private final AtomicLong cached = new AtomicLong();
+        private final AtomicLong passed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong unchecked = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong overLimit = new AtomicLong();
+        private final AtomicLong valgrindErrors = new AtomicLong();
+        private final LatencyHistogram runLatency = new LatencyHistogram();
+        private final LatencyHistogram trialLatency = new LatencyHistogram();
+
+        /* called as each trial finishes, from the thread that ran it */
+        void trialFinished(Trial t)
+        {
+            trials.incrementAndGet();
+            //a restored trial took no time to run, and would only drag the latency down
+            if(t.cached) cached.incrementAndGet();
+            else trialLatency.record(t.wallNanos);
+        }
+
+        /* called once a run has finished or been cancelled */
+        void finished(RunReport report, long nanos)
+        {
+            runs.incrementAndGet();
+            runLatency.record(nanos);
+            if(report.isCancelled())
+            {
+                cancelled.incrementAndGet();
+                return;
+            }
+            passed.addAndGet(report.count(RunReport.Status.PASSED));
+            failed.addAndGet(report.count(RunReport.Status.FAILED));
+            unchecked.addAndGet(report.count(RunReport.Status.UNCHECKED));
+            overLimit.addAndGet(report.limitsExceeded());
+            valgrindErrors.addAndGet(report.valgrindErrors());
+            for(Trial t : report.trials.values())
+            {
+                if(t.limitExceeded != null && (t.limitExceeded.startsWith("time limit")
+                        || t.limitExceeded.startsWith("CPU time limit")))
+                    timedOut.incrementAndGet();
+            }
+        }
+
+        @Override
+        public long getRuns()
+        {
+            return runs.get();
+        }
+
+        @Override
+        public long getCancelledRuns()
+        {
+            return cancelled.get();
+        }
+
+        @Override
+        public long getTrialsFinished()
+        {
+            return trials.get();
+        }
+
+        @Override
+        public long getTrialsCached()
+        {
+            return cached.get();
+        }
+
+        @Override
+        public long getTrialsPassed()
+        {
+            return passed.get();
+        }
+
+        @Override
+        public long getTrialsFailed()
+        {
+            return failed.get();
+        }
+
+        @Override
+        public long getTrialsUnchecked()
+        {
+            return unchecked.get();
+        }
+
+        @Override
+        public long getTrialsTimedOut()
+        {
+            return timedOut.get();
+        }
+
+        @Override
+        public long getTrialsOverLimit()
+        {
+            return overLimit.get();
+        }
+
+        @Override
+        public long getValgrindErrors()
+        {
+            return valgrindErrors.get();
+        }
+
+        @Override
+        public Latency getRunLatency()
+        {
+            return Latency.of(runLatency);
+        }
+
+        @Override
+        public Latency getTrialLatency()
+        {
+            return Latency.of(trialLatency);
+        }
+    }
+
+    static final class Compare implements ComparisonMXBean
+    {
+        private final AtomicLong comparisons = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void compared(boolean passed, long bytesCompared, long nanos)
+        {
+            comparisons.incrementAndGet();
+            if(!passed) failed.incrementAndGet();
+            bytes.addAndGet(bytesCompared);
+            latency.record(nanos);
+        }
+
+        @Override
+        public long getComparisons()
+        {
+            return comparisons.get();
+        }
+
+        @Override
+        public long getFailedComparisons()
+        {
+            return failed.get();
+        }
+
+        @Override
+        public long getBytesCompared()
+        {
+            return bytes.get();
+        }
+
+        @Override
+        public Latency getComparisonLatency()
+        {
+            return Latency.of(latency);
+        }
+
+        @Override
+        public double getThroughputMBPerSecond()
+        {
+            long nanos = latency.totalNanos();
+            return nanos == 0 ? 0 : (bytes.get() / (1024.0 * 1024.0)) / (nanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.cqwillia.tester;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/* Timings records how long each phase of a build or run took, in the order the phases ran, and
+   prints those phases along with the time and resources of every trial. Everything printed goes
+   through the console, and so into the session log as well.
+
+   A trial's CPU time and peak resident set size are measured by the Watchdog. Either may be
+   unknown for a trial that exits before its first sample, which is shown as n/a.
+ */
+final class Timings
+{
+    static final int SLOWEST = 5;
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    /* adds the time since startNanos, a System.nanoTime() reading, to the named phase */
+    synchronized void record(String phase, long startNanos)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        Long before = phases.get(phase);
+        phases.put(phase, before == null ? elapsed : before + elapsed);
+    }
+
+    synchronized Map<String, Long> phases()
+    {
+        return new LinkedHashMap<>(phases);
+    }
+
+    synchronized String describe()
+    {
+        StringBuilder s = new StringBuilder();
+        for(Map.Entry<String, Long> phase : phases.entrySet())
+        {
+            if(s.length() > 0) s.append(", ");
+            s.append(phase.getKey()).append(' ').append(millis(phase.getValue()));
+        }
+        return s.toString();
+    }
+
+    /* prints the phases, then each trial's timing in key order, then the slowest trials */
+    void print(Collection<Trial> trials, PrintStream console)
+    {
+        console.println("Trial timings (wall time, CPU time, peak resident memory):");
+        for(Trial t : trials)
+        {
+            console.println("  Trial " + t.key + ": " + millis(t.wallNanos) + " wall, "
+                    + (t.cached ? "restored from the result cache" : cpu(t.cpuMillis) + ", " + megabytes(t.peakRssBytes)));
+        }
+
+        List<Trial> slowest = slowest(trials, SLOWEST);
+        StringBuilder s = new StringBuilder("Slowest trials: ");
+        for(int i = 0; i < slowest.size(); i++)
+        {
+            if(i > 0) s.append(", ");
+            s.append(slowest.get(i).key).append(" (").append(millis(slowest.get(i).wallNanos)).append(')');
+        }
+        if(!slowest.isEmpty()) console.println(s.toString());
+        console.println("Run phases: " + describe() + ".");
+    }
+
+    /* returns the n trials that took the most wall time, slowest first */
+    static List<Trial> slowest(Collection<Trial> trials, int n)
+    {
+        List<Trial> sorted = new ArrayList<>(trials);
+        Collections.sort(sorted, new Comparator<Trial>() {
+            @Override
+            public int compare(Trial a, Trial b)
+            {
+                return Long.compare(b.wallNanos, a.wallNanos);
+            }
+        });
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    static String millis(long nanos)
+    {
+        return (nanos / 1000000) + " ms";
+    }
+
+    static String cpu(long millis)
+    {
+        return millis < 0 ? "n/a CPU" : millis + " ms CPU";
+    }
+
+    static String megabytes(long bytes)
+    {
+        return bytes < 0 ? "n/a memory" : String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,67 @@
+package com.cqwillia.tester;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/* A Trial is one execution of the test script: the integer key shared by its input, output and
+   reference files, the arguments generated for it from the command template, and the files it
+   reads from and writes to. command is the arguments joined for display.
+   Trials may run on worker threads, so anything a trial wants to print is collected in its log
+   and handed to the console in key order once the trial has finished. A trial's log may be
+   written by both the thread running it and the pump draining its standard error.
+   If the trial ran under valgrind, memcheck holds what valgrind reported. If the watchdog killed
+   the trial, limitExceeded describes the limit it exceeded. The wall time, CPU time and peak
+   resident memory of the trial are recorded by the thread that ran it.
+ */
+final class Trial
+{
+    final int key;
+    final List<String> argv;
+    final String command;
+    final File input;
+    final File output;
+
+    File reference;
+    Comparison comparison;
+
+    final List<String> log = new ArrayList<>();
+    volatile boolean valgrindError;
+    volatile MemcheckReport memcheck;
+    volatile String limitExceeded;
+    //set when the log of standard error was cut off at the output limit
+    boolean stderrTruncated;
+
+    long wallNanos;
+    //-1 where the watchdog could not measure them
+    long cpuMillis = -1;
+    long peakRssBytes = -1;
+    boolean cached;
+
+    Trial(int key, List<String> argv, File input, File output)
+    {
+        this.key = key;
+        this.argv = Collections.unmodifiableList(argv);
+        this.command = CommandTemplate.render(argv);
+        this.input = input;
+        this.output = output;
+    }
+
+    synchronized void println(String s)
+    {
+        log.add(s);
+    }
+
+    void setMemcheck(MemcheckReport report)
+    {
+        memcheck = report;
+        if(!report.hasErrors()) return;
+        valgrindError = true;
+        println("Valgrind error in trial corresponding to output file " + output);
+        for(String line : report.describe())
+        {
+            println(line);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.cqwillia.tester;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/* ValgrindParser builds a MemcheckReport from valgrind's output, in either of its two formats.
+
+   As a LineHandler it reads the text format from a trial's standard error one line at a time.
+   Only lines carrying valgrind's ==pid== prefix are considered, so nothing the test itself prints
+   can be mistaken for an error. Each error is a header line naming what went wrong followed by
+   its stack, one "at" or "by" frame per line, and ends at the next blank valgrind line; leaks are
+   reported the same way, and the LEAK SUMMARY gives the final byte counts.
+
+   parseXml reads the file written with --xml=yes --xml-file=<file>, which gives each error's kind
+   directly. It is read with a streaming parser so that the size of the log does not matter.
+
+   In both formats, text is only copied out of a line or element for errors whose stack is kept.
+ */
+final class ValgrindParser implements StreamPump.LineHandler
+{
+    private final MemcheckReport report = new MemcheckReport();
+
+    //the error whose stack is being read, if any
+    private String kind;
+    private String what;
+    private long bytes;
+    private List<String> stack;
+    private boolean inStack;
+
+    @Override
+    public void line(String s)
+    {
+        //valgrind lines look like "==1234== message"; anything else came from the test itself
+        if(!s.startsWith("==")) return;
+        int end = s.indexOf("==", 2);
+        if(end < 0) return;
+        int start = end + 2;
+        while(start < s.length() && s.charAt(start) == ' ') start++;
+
+        if(start >= s.length())
+        {
+            endError();
+            return;
+        }
+
+        if(kind != null)
+        {
+            if(s.startsWith("at 0x", start) || s.startsWith("by 0x", start))
+            {
+                if(inStack && stack != null && stack.size() < MemcheckReport.MAX_FRAMES)
+                {
+                    int colon = s.indexOf(": ", start);
+                    stack.add(colon < 0 ? s.substring(start + 3) : s.substring(colon + 2));
+                }
+                return;
+            }
+            //anything else, such as "Address 0x... is 0 bytes after a block", starts an auxiliary stack
+            inStack = false;
+            return;
+        }
+
+        String header = classify(s, start);
+        if(header != null)
+        {
+            kind = header;
+            bytes = kind.startsWith("Leak_") ? readNumber(s, start) : 0;
+            boolean detailed = report.wantsDetail();
+            what = detailed ? s.substring(start) : null;
+            stack = detailed ? new ArrayList<String>() : null;
+            inStack = true;
+            return;
+        }
+
+        //LEAK SUMMARY lines are the final word on how many bytes each kind of leak lost
+        if(s.startsWith("definitely lost:", start))
+            report.definitelyLost = readNumber(s, start + "definitely lost:".length());
+        else if(s.startsWith("indirectly lost:", start))
+            report.indirectlyLost = readNumber(s, start + "indirectly lost:".length());
+        else if(s.startsWith("possibly lost:", start))
+            report.possiblyLost = readNumber(s, start + "possibly lost:".length());
+    }
+
+    /* returns the report, which is complete once the stream has been read to its end */
+    MemcheckReport finish()
+    {
+        endError();
+        return report;
+    }
+
+    private void endError()
+    {
+        if(kind == null) return;
+        report.add(kind, what, bytes, stack);
+        kind = null;
+        what = null;
+        stack = null;
+    }
+
+    /* returns the kind of error a text header line starts, or null if it does not start one */
+    private static String classify(String s, int i)
+    {
+        if(s.startsWith("Invalid read", i)) return "InvalidRead";
+        if(s.startsWith("Invalid write", i)) return "InvalidWrite";
+        if(s.startsWith("Invalid free", i)) return "InvalidFree";
+        if(s.startsWith("Mismatched free", i)) return "MismatchedFree";
+        if(s.startsWith("Jump to the invalid address", i)) return "InvalidJump";
+        if(s.startsWith("Conditional jump or move depends on uninitialised", i)) return "UninitCondition";
+        if(s.startsWith("Use of uninitialised value", i)) return "UninitValue";
+        if(s.startsWith("Syscall param", i)) return "SyscallParam";
+        if(s.startsWith("Source and destination overlap", i)) return "Overlap";
+        if(s.startsWith("Argument '", i)) return "FishyValue";
+        if(s.indexOf(" in loss record ", i) >= 0)
+        {
+            if(s.indexOf("are definitely lost", i) >= 0) return "Leak_DefinitelyLost";
+            if(s.indexOf("are indirectly lost", i) >= 0) return "Leak_IndirectlyLost";
+            if(s.indexOf("are possibly lost", i) >= 0) return "Leak_PossiblyLost";
+            if(s.indexOf("are still reachable", i) >= 0) return "Leak_StillReachable";
+        }
+        return null;
+    }
+
+    /* reads the first number at or after i, ignoring the commas valgrind groups digits with */
+    private static long readNumber(String s, int i)
+    {
+        while(i < s.length() && !Character.isDigit(s.charAt(i))) i++;
+        long n = 0;
+        for(; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(Character.isDigit(c)) n = n * 10 + (c - '0');
+            else if(c != ',') break;
+        }
+        return n;
+    }
+
+    /* Reads a memcheck XML report. A report cut short, for example because the trial was killed,
+       yields the errors read before the point where it ends.
+     */
+    static MemcheckReport parseXml(Path xml) throws IOException
+    {
+        MemcheckReport report = new MemcheckReport();
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(xml)))
+        {
+            XMLStreamReader r = factory.createXMLStreamReader(in);
+            try
+            {
+                boolean inError = false;
+                boolean inXwhat = false;
+                int stacks = 0;
+                String kind = null;
+                String what = null;
+                long bytes = 0;
+                List<String> stack = null;
+                String fn = null, file = null, line = null, obj = null;
+
+                while(r.hasNext())
+                {
+                    int event = r.next();
+                    if(event == XMLStreamReader.START_ELEMENT)
+                    {
+                        String name = r.getLocalName();
+                        if(name.equals("error"))
+                        {
+                            inError = true;
+                            stacks = 0;
+                            kind = null;
+                            what = null;
+                            bytes = 0;
+                            stack = report.wantsDetail() ? new ArrayList<String>() : null;
+                        }
+                        else if(!inError) continue;
+                        else if(name.equals("kind")) kind = r.getElementText().trim();
+                        else if(name.equals("what")) what = r.getElementText().trim();
+                        else if(name.equals("xwhat")) inXwhat = true;
+                        else if(name.equals("text") && inXwhat) what = r.getElementText().trim();
+                        else if(name.equals("leakedbytes")) bytes = Long.parseLong(r.getElementText().trim());
+                        else if(name.equals("stack")) stacks++;
+                        else if(name.equals("frame"))
+                        {
+                            fn = null;
+                            file = null;
+                            line = null;
+                            obj = null;
+                        }
+                        //only the frames of the first stack belong to the error itself
+                        else if(stacks == 1 && stack != null)
+                        {
+                            if(name.equals("fn")) fn = r.getElementText().trim();
+                            else if(name.equals("file")) file = r.getElementText().trim();
+                            else if(name.equals("line")) line = r.getElementText().trim();
+                            else if(name.equals("obj")) obj = r.getElementText().trim();
+                        }
+                    }
+                    else if(event == XMLStreamReader.END_ELEMENT && inError)
+                    {
+                        String name = r.getLocalName();
+                        if(name.equals("xwhat")) inXwhat = false;
+                        else if(name.equals("frame") && stacks == 1 && stack != null
+                                && stack.size() < MemcheckReport.MAX_FRAMES)
+                        {
+                            String where = file != null ? file + (line != null ? ":" + line : "")
+                                    : (obj != null ? "in " + obj : "unknown");
+                            stack.add((fn != null ? fn : "???") + " (" + where + ")");
+                        }
+                        else if(name.equals("error"))
+                        {
+                            inError = false;
+                            if(kind != null) report.add(kind, what, bytes, stack);
+                        }
+                    }
+                }
+            } finally
+            {
+                r.close();
+            }
+        } catch(XMLStreamException | NumberFormatException x)
+        {
+            //keep whatever was read before the report broke off
+        }
+        return report;
+    }
+}
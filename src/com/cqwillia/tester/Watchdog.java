@@ -0,0 +1,355 @@
+package com.cqwillia.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/* The Watchdog enforces the limits in RunOptions on every running trial. A single daemon thread
+   samples each watched process, together with its descendants, at FIRST_SAMPLE_MILLIS after it
+   starts and at each doubling of that up to POLL_MILLIS, then every POLL_MILLIS from then on:
+    - the wall-clock time since it started, against the timeout
+    - its CPU time, from ProcessHandle.Info, against the CPU limit
+    - its peak resident set size, VmHWM in /proc/<pid>/status, against the memory limit
+   The size of a trial's standard output is counted as it is read rather than sampled, so that a
+   trial printing without end is stopped as soon as it passes the output limit. When standard output
+   is redirected straight to a file, the size of that file is sampled instead, so the output may
+   run past the limit by as much as the trial writes in one POLL_MILLIS. The same holds for the log
+   standard error is redirected to, which is held to the output limit of its own.
+
+   A process that exceeds a limit is killed with RunControl.kill, descendants first, so a program
+   run under valgrind dies with it. Closing the pipes this way also ends the blocking reads of the
+   thread running the trial. A limit of zero is not enforced. The memory limit is only enforced
+   where /proc is available.
+
+   The kernel keeps the peak resident set size itself, so a sample sees the peak since the process
+   started rather than only its size at that moment. The peak of a trial with descendants is the
+   sum of their peaks, which may never all have been reached at once. A process can only be sampled
+   while it runs, since the JVM reaps it as soon as it exits, so a sample taken as or after it exits
+   is discarded. A trial that exits before its first sample has no peak resident set size, which is
+   reported as -1.
+
+   Its CPU time is known exactly at exit if it was the only child of the JVM running while it ran:
+   the kernel adds the CPU time of every reaped child, and of the descendants that child reaped, to
+   that of the JVM, so the difference across the trial is its own. Otherwise the CPU time is the
+   last sample taken, or -1 if there was none.
+ */
+final class Watchdog
+{
+    static final long POLL_MILLIS = 50;
+    static final long FIRST_SAMPLE_MILLIS = 1;
+    //the USER_HZ /proc reports CPU times in, which Linux fixes at 100 on every architecture
+    private static final long CLOCK_TICKS = 100;
+
+    private static final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService timer;
+
+    private Watchdog() {}
+
+    /* one watched process; close it once the process has exited */
+    static final class Watch implements Closeable
+    {
+        private final Process process;
+        private final long startNanos = System.nanoTime();
+        private final long timeoutMillis;
+        private final long cpuMillis;
+        private final long memoryBytes;
+        private final long outputBytes;
+        private volatile String exceeded;
+
+        private volatile long cpuUsed = -1;
+        private volatile long peakRss = -1;
+        private volatile Path outputFile;
+        private volatile Path errorFile;
+
+        //whether the CPU time reaped by the JVM while the process ran can only be the process's own
+        private final boolean alone;
+        private final long startsBefore;
+        private final long ticksBefore;
+
+        private Watch(Process process, RunOptions options)
+        {
+            this.process = process;
+            this.alone = RunControl.running() == 1;
+            this.startsBefore = RunControl.starts();
+            this.ticksBefore = alone ? reapedTicks() : -1;
+            this.timeoutMillis = options.getTimeoutMillis();
+            this.cpuMillis = options.getCpuLimitMillis();
+            this.memoryBytes = options.getMemoryLimitBytes();
+            this.outputBytes = options.getOutputLimitBytes();
+        }
+
+        /* returns a description of the limit the process was killed for, or null if it was not */
+        String exceeded()
+        {
+            return exceeded;
+        }
+
+        boolean isOutputTruncated()
+        {
+            return exceeded != null && exceeded.startsWith("output");
+        }
+
+        long outputLimit()
+        {
+            return outputBytes;
+        }
+
+        /* returns the CPU time used by the process and its descendants, or -1 if it was never measured */
+        long cpuMillis()
+        {
+            return cpuUsed;
+        }
+
+        /* returns the peak resident set size sampled, or -1 if it was never measured */
+        long peakRssBytes()
+        {
+            return peakRss;
+        }
+
+        /* wraps the process's standard output so that every byte read from it counts towards its limit */
+        InputStream count(InputStream in)
+        {
+            if(outputBytes <= 0) return in;
+            return new FilterInputStream(in) {
+                private long read;
+
+                @Override
+                public int read() throws IOException
+                {
+                    int b = super.read();
+                    if(b >= 0) add(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buf, int off, int len) throws IOException
+                {
+                    int n = super.read(buf, off, len);
+                    if(n > 0) add(n);
+                    return n;
+                }
+
+                private void add(int n)
+                {
+                    read += n;
+                    if(read > outputBytes) kill("output limit of " + outputBytes + " bytes");
+                }
+            };
+        }
+
+        /* counts the size of the file the process's standard output is redirected to towards its limit */
+        void countFile(Path file)
+        {
+            outputFile = file;
+        }
+
+        /* counts the size of the file the process's standard error is redirected to towards the same limit */
+        void countErrorFile(Path file)
+        {
+            errorFile = file;
+        }
+
+        void kill(String reason)
+        {
+            synchronized(this)
+            {
+                if(exceeded != null) return;
+                exceeded = reason;
+            }
+            RunControl.kill(process);
+        }
+
+        /* takes one last sample as the process exits, which only counts if it is still running */
+        void finalSample()
+        {
+            //output written between the last sample and the exit still counts
+            checkOutputFile();
+            try
+            {
+                sample();
+            } catch(RuntimeException e)
+            {
+                //the process is already gone
+            }
+        }
+
+        /* takes the exact CPU time of the process once it has been waited for, if it ran alone */
+        void exited()
+        {
+            if(ticksBefore < 0 || RunControl.starts() != startsBefore) return;
+            long ticks = reapedTicks();
+            if(ticks >= ticksBefore) cpuUsed = Math.max(cpuUsed, (ticks - ticksBefore) * 1000 / CLOCK_TICKS);
+        }
+
+        private boolean checkOutputFile()
+        {
+            if(outputBytes <= 0) return false;
+            if(oversized(outputFile))
+            {
+                kill("output limit of " + outputBytes + " bytes");
+                return true;
+            }
+            if(oversized(errorFile))
+            {
+                kill("standard error limit of " + outputBytes + " bytes");
+                return true;
+            }
+            return false;
+        }
+
+        private boolean oversized(Path file)
+        {
+            try
+            {
+                return file != null && Files.size(file) > outputBytes;
+            } catch(IOException e)
+            {
+                //the file is not there to be measured
+                return false;
+            }
+        }
+
+        private void sample()
+        {
+            if(!process.isAlive()) return;
+            long elapsed = (System.nanoTime() - startNanos) / 1000000;
+            if(timeoutMillis > 0 && elapsed > timeoutMillis)
+            {
+                kill("time limit of " + timeoutMillis + " ms");
+                return;
+            }
+            if(checkOutputFile()) return;
+
+            long cpu = cpu(process.toHandle());
+            long rss = rss(process.pid());
+            //a process that has exited reads as unknown rather than as zero, and the sample is dropped
+            if(cpu < 0) return;
+            Iterator<ProcessHandle> children = process.descendants().iterator();
+            while(children.hasNext())
+            {
+                ProcessHandle child = children.next();
+                cpu += Math.max(0, cpu(child));
+                if(rss >= 0) rss += Math.max(0, rss(child.pid()));
+            }
+            cpuUsed = Math.max(cpuUsed, cpu);
+            if(rss >= 0) peakRss = Math.max(peakRss, rss);
+
+            if(cpuMillis > 0 && cpu > cpuMillis) kill("CPU time limit of " + cpuMillis + " ms");
+            else if(memoryBytes > 0 && rss > memoryBytes) kill("memory limit of " + memoryBytes + " bytes");
+        }
+
+        @Override
+        public void close()
+        {
+            watches.remove(this);
+        }
+    }
+
+    /* starts watching p, which runs a trial under the limits in options */
+    static Watch watch(Process p, RunOptions options)
+    {
+        final Watch w = new Watch(p, options);
+        synchronized(Watchdog.class)
+        {
+            if(timer == null)
+            {
+                timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "trial-watchdog");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                timer.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        for(Watch watch : watches)
+                        {
+                            //a process that exits while being sampled must not stop the watchdog
+                            try
+                            {
+                                watch.sample();
+                            } catch(RuntimeException e)
+                            {
+                                continue;
+                            }
+                        }
+                    }
+                }, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        watches.add(w);
+        //most trials finish well within one POLL_MILLIS, so the first samples are taken sooner
+        Runnable early = new Runnable() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if(watches.contains(w)) w.sample();
+                } catch(RuntimeException e)
+                {
+                    //the process exited while being sampled
+                }
+            }
+        };
+        for(long delay = FIRST_SAMPLE_MILLIS; delay < POLL_MILLIS; delay *= 2)
+        {
+            timer.schedule(early, delay, TimeUnit.MILLISECONDS);
+        }
+        return w;
+    }
+
+    /* returns the CPU time of a process in milliseconds, or -1 once it has exited */
+    private static long cpu(ProcessHandle h)
+    {
+        Optional<Duration> cpu = h.info().totalCpuDuration();
+        return cpu.isPresent() ? cpu.get().toMillis() : -1;
+    }
+
+    /* returns the peak resident set size of a process in bytes, or -1 where /proc cannot be read */
+    private static long rss(long pid)
+    {
+        try
+        {
+            List<String> status = Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"),
+                    StandardCharsets.ISO_8859_1);
+            for(String line : status)
+            {
+                if(line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+            }
+        } catch(IOException | NumberFormatException e)
+        {
+            return -1;
+        }
+        return -1;
+    }
+
+    /* returns the CPU time of the children the JVM has reaped, in clock ticks, or -1 where /proc
+       cannot be read */
+    private static long reapedTicks()
+    {
+        try
+        {
+            String stat = new String(Files.readAllBytes(Paths.get("/proc", "self", "stat")), StandardCharsets.ISO_8859_1);
+            //the fields after the command name, which may itself hold spaces, start with the state
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+            return Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+        } catch(IOException | RuntimeException e)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.cqwillia.tester;
+
+import com.cqwillia.tester.exceptions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandTemplateTest
+{
+    //files relative to the directory the tester runs in are passed as written
+    private static final File INPUT = new File("in", "input_07.txt");
+    private static final File OUTPUT = new File("out", "output_07.txt");
+    private static final File REF = new File("ref", "ref_07.txt");
+
+    private static List<String> apply(String template) throws AngleExpressionException
+    {
+        return CommandTemplate.compile(template).apply(7, INPUT, OUTPUT, REF);
+    }
+
+    private static String path(String... parts)
+    {
+        return String.join(File.separator, parts);
+    }
+
+    private static void assertRejected(Class<? extends AngleExpressionException> expected, final String template)
+    {
+        assertThrows(expected, new Executable() {
+            @Override
+            public void execute() throws Throwable
+            {
+                CommandTemplate.compile(template);
+            }
+        });
+    }
+
+    @Test
+    void argumentsAreSplitAtUnquotedWhitespace() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList("run", "-a", "b"), apply("  run  -a\tb "));
+    }
+
+    @Test
+    void placeholdersAreReplacedWithTheTrialsFiles() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList(path("in", "input_07.txt"), path("out", "output_07.txt"),
+                path("ref", "ref_07.txt"), "7", "input_07"), apply("<input> <output> <ref> <key> <name>"));
+    }
+
+    @Test
+    void placeholdersJoinTheTextAroundThem() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList("--file=" + path("in", "input_07.txt"), "out7.txt"),
+                apply("--file=<input> out<key>.txt"));
+    }
+
+    @Test
+    void nameFallsBackOnTheOutputFile() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList("output_07"), CommandTemplate.compile("<name>").apply(7, null, OUTPUT, null));
+    }
+
+    @Test
+    void pathWithSpacesStaysOneArgument() throws AngleExpressionException
+    {
+        File spaced = new File("in", "my input.txt");
+        assertEquals(Arrays.asList("cat", path("in", "my input.txt")),
+                CommandTemplate.compile("cat <input>").apply(1, spaced, OUTPUT, null));
+    }
+
+    @Test
+    void doubleQuotesKeepSpacesAndReplacePlaceholders() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList("echo", "a  7"), apply("echo \"a  <key>\""));
+    }
+
+    @Test
+    void singleQuotesAreTakenLiterally() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList("echo", "<input> \"x\""), apply("echo '<input> \"x\"'"));
+    }
+
+    @Test
+    void backslashTakesTheNextCharacterLiterally() throws AngleExpressionException
+    {
+        assertEquals(Arrays.asList("echo", "a b", "<key>"), apply("echo a\\ b \\<key\\>"));
+    }
+
+    @Test
+    void execNamesTheExecutableGiven() throws AngleExpressionException
+    {
+        CommandTemplate template = CommandTemplate.compile("<exec> <input>", new File(path("scripts", "bin", "t")));
+        assertEquals(Arrays.asList(path("scripts", "bin", "t"), path("in", "input_07.txt")),
+                template.apply(7, INPUT, OUTPUT, REF));
+        assertEquals(Arrays.asList(path(".", "t")), CommandTemplate.compile("<exec>", new File("t")).apply(7, null, null, null));
+    }
+
+    @Test
+    void usedPlaceholdersAreReported() throws AngleExpressionException
+    {
+        CommandTemplate template = CommandTemplate.compile("diff <output> <ref>");
+        assertTrue(template.uses(CommandTemplate.Placeholder.REF));
+        assertTrue(template.uses(CommandTemplate.Placeholder.OUTPUT));
+        assertFalse(template.uses(CommandTemplate.Placeholder.INPUT));
+        assertFalse(CommandTemplate.compile("echo '<ref>'").uses(CommandTemplate.Placeholder.REF));
+    }
+
+    @Test
+    void malformedTemplatesAreRejected()
+    {
+        assertRejected(UnpairedAngleException.class, "run <input");
+        assertRejected(UnpairedAngleException.class, "run > out");
+        assertRejected(NestedAngleException.class, "run <<input>>");
+        assertRejected(InvalidContentsException.class, "run <inptu>");
+        assertRejected(AngleExpressionException.class, "run 'unterminated");
+    }
+
+    @Test
+    void renderQuotesArgumentsThatWouldNotSurviveSplitting()
+    {
+        assertEquals("echo 'a b' 'it'\\''s' '' plain", CommandTemplate.render(Arrays.asList("echo", "a b", "it's", "", "plain")));
+    }
+}
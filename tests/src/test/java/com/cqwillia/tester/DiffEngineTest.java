@@ -0,0 +1,114 @@
+package com.cqwillia.tester;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffEngineTest
+{
+    @TempDir
+    Path dir;
+
+    /* returns the numbers from 1 to n, one per line, with line k replaced where replace[k] is set */
+    private static String lines(int n, String... replace)
+    {
+        StringBuilder s = new StringBuilder();
+        for(int i = 1; i <= n; i++)
+        {
+            String line = String.valueOf(i);
+            for(int j = 0; j + 1 < replace.length; j += 2)
+            {
+                if(Integer.parseInt(replace[j]) == i) line = replace[j + 1];
+            }
+            s.append(line).append('\n');
+        }
+        return s.toString();
+    }
+
+    @Test
+    void identicalFilesHaveNoHunks() throws IOException
+    {
+        File ref = TestFiles.file(dir, "ref", lines(100));
+        File out = TestFiles.file(dir, "out", lines(100));
+        assertTrue(DiffEngine.diff(out, ref, 3).isEmpty());
+    }
+
+    @Test
+    void changedLineIsShownWithContext() throws IOException
+    {
+        File ref = TestFiles.file(dir, "ref", lines(10));
+        File out = TestFiles.file(dir, "out", lines(10, "5", "X"));
+        List<DiffEngine.Hunk> hunks = DiffEngine.diff(out, ref, 3);
+        assertEquals(1, hunks.size());
+        DiffEngine.Hunk h = hunks.get(0);
+        assertEquals("@@ -2,7 +2,7 @@", h.header());
+        assertEquals(Arrays.asList(" 2", " 3", " 4", "-5", "+X", " 6", " 7", " 8"), h.lines);
+        assertFalse(h.unbounded);
+    }
+
+    @Test
+    void extraOutputLinesAreAdded() throws IOException
+    {
+        File ref = TestFiles.file(dir, "ref", lines(3));
+        File out = TestFiles.file(dir, "out", lines(4));
+        List<DiffEngine.Hunk> hunks = DiffEngine.diff(out, ref, 3);
+        assertEquals(1, hunks.size());
+        assertEquals(Arrays.asList(" 1", " 2", " 3", "+4"), hunks.get(0).lines);
+        assertEquals(3, hunks.get(0).refCount);
+        assertEquals(4, hunks.get(0).outCount);
+    }
+
+    @Test
+    void missingOutputLinesAreRemoved() throws IOException
+    {
+        File ref = TestFiles.file(dir, "ref", lines(8));
+        File out = TestFiles.file(dir, "out", lines(8, "4", "3").replace("3\n3\n", "3\n"));
+        List<DiffEngine.Hunk> hunks = DiffEngine.diff(out, ref, 3);
+        assertEquals(1, hunks.size());
+        assertTrue(hunks.get(0).lines.contains("-4"));
+        assertFalse(hunks.get(0).lines.contains("+4"));
+    }
+
+    @Test
+    void distantChangesAreSeparateHunksUpToTheLimit() throws IOException
+    {
+        File ref = TestFiles.file(dir, "ref", lines(100));
+        File out = TestFiles.file(dir, "out", lines(100, "10", "A", "60", "B"));
+        assertEquals(2, DiffEngine.diff(out, ref, 3).size());
+
+        List<DiffEngine.Hunk> first = DiffEngine.diff(out, ref, 1);
+        assertEquals(1, first.size());
+        assertEquals(7, first.get(0).refStart);
+    }
+
+    @Test
+    void lineEndingsDoNotDiffer() throws IOException
+    {
+        File ref = TestFiles.file(dir, "ref", "a\r\nb\rc\n");
+        File out = TestFiles.file(dir, "out", "a\nb\nc\n");
+        assertTrue(DiffEngine.diff(out, ref, 3).isEmpty());
+    }
+
+    @Test
+    void longHunksKeepOnlyTheirFirstLines() throws IOException
+    {
+        StringBuilder changed = new StringBuilder();
+        for(int i = 1; i <= 100; i++)
+        {
+            changed.append("x").append(i).append('\n');
+        }
+        File ref = TestFiles.file(dir, "ref", lines(100));
+        File out = TestFiles.file(dir, "out", changed.toString());
+        DiffEngine.Hunk h = DiffEngine.diff(out, ref, 3).get(0);
+        assertEquals(100, h.refCount);
+        assertEquals(100, h.outCount);
+        assertEquals(200, h.lines.size() + h.omitted);
+    }
+}
@@ -0,0 +1,122 @@
+package com.cqwillia.tester;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectCacheTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    void keyIsStableForUnchangedSources() throws IOException
+    {
+        Path source = TestFiles.write(dir, "src/a.cpp", "#include \"a.h\"\nint a() { return A; }\n");
+        TestFiles.write(dir, "src/a.h", "#define A 1\n");
+        assertEquals(ObjectCache.key(source, "-g"), ObjectCache.key(source, "-g"));
+    }
+
+    @Test
+    void keyChangesWithTheFlags() throws IOException
+    {
+        Path source = TestFiles.write(dir, "src/a.cpp", "int a() { return 1; }\n");
+        assertNotEquals(ObjectCache.key(source, "-g"), ObjectCache.key(source, "-O2"));
+    }
+
+    @Test
+    void keyFollowsIncludedHeadersTransitively() throws IOException
+    {
+        Path source = TestFiles.write(dir, "src/a.cpp", "#include \"a.h\"\n");
+        TestFiles.write(dir, "src/a.h", "  #  include \"inner/b.h\"\n");
+        Path inner = TestFiles.write(dir, "src/inner/b.h", "#define B 1\n");
+        String before = ObjectCache.key(source, "-g");
+        Files.write(inner, "#define B 2\n".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(before, ObjectCache.key(source, "-g"));
+    }
+
+    @Test
+    void missingHeadersCountOnceTheyExist() throws IOException
+    {
+        Path source = TestFiles.write(dir, "src/a.cpp", "#include <vector>\n#include \"later.h\"\nint a();\n");
+        String before = ObjectCache.key(source, "-g");
+        TestFiles.write(dir, "src/later.h", "#define LATER 1\n");
+        assertNotEquals(before, ObjectCache.key(source, "-g"));
+    }
+
+    @Test
+    void headersThatIncludeEachOtherAreHashedOnce() throws IOException
+    {
+        Path source = TestFiles.write(dir, "src/a.cpp", "#include \"a.h\"\n");
+        Path a = TestFiles.write(dir, "src/a.h", "#include \"b.h\"\n");
+        Path b = TestFiles.write(dir, "src/b.h", "#include \"a.h\"\n");
+        String first = ObjectCache.key(source, "-g");
+        assertEquals(first, ObjectCache.key(source, "-g"));
+
+        Files.write(a, "#include \"b.h\"\n#define A 1\n".getBytes(StandardCharsets.UTF_8));
+        String second = ObjectCache.key(source, "-g");
+        assertNotEquals(first, second);
+
+        Files.write(b, "#include \"a.h\"\n#define B 1\n".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(second, ObjectCache.key(source, "-g"));
+    }
+
+    @Test
+    void storedObjectIsRestoredElsewhere() throws IOException
+    {
+        ObjectCache cache = new ObjectCache(dir.resolve("cache"));
+        Path object = TestFiles.write(dir, "one/bin/a.o", "object code");
+        cache.store("k1", object);
+        assertEquals("k1", TestFiles.read(dir.resolve("one/bin/a.o.key")));
+
+        Path other = dir.resolve("two/bin/a.o");
+        Files.createDirectories(other.getParent());
+        assertTrue(cache.restore("k1", other));
+        assertEquals("object code", TestFiles.read(other));
+        assertEquals("k1", TestFiles.read(dir.resolve("two/bin/a.o.key")));
+    }
+
+    @Test
+    void currentObjectIsLeftAlone() throws IOException
+    {
+        ObjectCache cache = new ObjectCache(dir.resolve("cache"));
+        Path object = TestFiles.write(dir, "bin/a.o", "object code");
+        TestFiles.write(dir, "bin/a.o.key", "k1");
+        assertTrue(cache.restore("k1", object));
+        assertFalse(Files.exists(dir.resolve("cache")));
+    }
+
+    @Test
+    void leastRecentlyUsedObjectsAreEvicted() throws IOException
+    {
+        ObjectCache cache = new ObjectCache(dir.resolve("cache"), 20);
+        cache.store("old", TestFiles.write(dir, "one/a.o", "0123456789"));
+        cache.store("new", TestFiles.write(dir, "two/a.o", "abcdefghij"));
+        dir.resolve("cache/old.o").toFile().setLastModified(1000);
+        dir.resolve("cache/new.o").toFile().setLastModified(2000);
+        assertTrue(cache.restore("old", TestFiles.write(dir, "three/a.o", "")));
+        cache.store("newest", TestFiles.write(dir, "four/a.o", "ABCDEFGHIJ"));
+        cache.trim();
+
+        //restoring old made new the least recently used
+        assertTrue(Files.exists(dir.resolve("cache/old.o")));
+        assertFalse(Files.exists(dir.resolve("cache/new.o")));
+        assertTrue(Files.exists(dir.resolve("cache/newest.o")));
+    }
+
+    @Test
+    void unknownKeyIsNotRestored() throws IOException
+    {
+        ObjectCache cache = new ObjectCache(dir.resolve("cache"));
+        Path object = TestFiles.write(dir, "bin/a.o", "stale code");
+        TestFiles.write(dir, "bin/a.o.key", "old");
+        assertFalse(cache.restore("new", object));
+        assertEquals("stale code", TestFiles.read(object));
+    }
+}
@@ -0,0 +1,172 @@
+package com.cqwillia.tester;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest
+{
+    @TempDir
+    Path dir;
+
+    private ResultCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        Path exec = TestFiles.write(dir, "split_test", "executable");
+        cache = ResultCache.open(dir.resolve("cache"), exec, "echo <key>");
+        assertNotNull(cache);
+    }
+
+    private Trial trial(int key, File input, File output, String... argv)
+    {
+        return new Trial(key, Arrays.asList(argv), input, output);
+    }
+
+    @Test
+    void identicalInputsWithDifferentArgumentsGetDifferentKeys() throws IOException
+    {
+        File in1 = TestFiles.write(dir, "input_1.txt", "same").toFile();
+        File in2 = TestFiles.write(dir, "input_2.txt", "same").toFile();
+        Trial t1 = trial(1, in1, dir.resolve("output_1.txt").toFile(), "echo", "1");
+        Trial t2 = trial(2, in2, dir.resolve("output_2.txt").toFile(), "echo", "2");
+        assertNotEquals(cache.key(t1), cache.key(t2));
+    }
+
+    @Test
+    void sameArgumentsAndInputGetTheSameKey() throws IOException
+    {
+        File in = TestFiles.write(dir, "input_1.txt", "abc").toFile();
+        File out = dir.resolve("output_1.txt").toFile();
+        assertEquals(cache.key(trial(1, in, out, "run", in.getPath())), cache.key(trial(1, in, out, "run", in.getPath())));
+    }
+
+    @Test
+    void argumentBoundariesAreKept() throws IOException
+    {
+        File out = dir.resolve("output_1.txt").toFile();
+        assertNotEquals(cache.key(trial(1, null, out, "ab", "c")), cache.key(trial(1, null, out, "a", "bc")));
+    }
+
+    @Test
+    void changedReferenceChangesTheKeyWhenTheCommandNamesIt() throws IOException
+    {
+        ResultCache named = ResultCache.open(dir.resolve("cache"), dir.resolve("split_test"), "check <ref>");
+        File in = TestFiles.write(dir, "input_1.txt", "abc").toFile();
+        File ref = TestFiles.write(dir, "ref_1.txt", "first").toFile();
+        Trial t = trial(1, in, dir.resolve("output_1.txt").toFile(), "check", ref.getPath());
+        t.reference = ref;
+        String before = named.key(t);
+        TestFiles.write(dir, "ref_1.txt", "second");
+        assertNotEquals(before, named.key(t));
+    }
+
+    @Test
+    void changedReferenceKeepsTheKeyWhenTheCommandDoesNotNameIt() throws IOException
+    {
+        File in = TestFiles.write(dir, "input_1.txt", "abc").toFile();
+        Trial t = trial(1, in, dir.resolve("output_1.txt").toFile(), "echo", "1");
+        t.reference = TestFiles.write(dir, "ref_1.txt", "first").toFile();
+        String before = cache.key(t);
+        TestFiles.write(dir, "ref_1.txt", "second");
+        assertEquals(before, cache.key(t));
+    }
+
+    @Test
+    void restoredOutputIsComparedAgainstAChangedReference() throws IOException
+    {
+        RunOptions tee = new RunOptions();
+        tee.setTeeCompare(true);
+        File in = TestFiles.write(dir, "input_1.txt", "abc").toFile();
+        File out = TestFiles.write(dir, "output_1.txt", "result\n").toFile();
+        File ref = TestFiles.write(dir, "ref_1.txt", "result\n").toFile();
+        Trial ran = trial(1, in, out, "echo", "1");
+        ran.reference = ref;
+        ran.comparison = ResultComparator.compare(out, ref, false);
+        String key = cache.key(ran);
+        cache.store(ran, key);
+
+        TestFiles.write(dir, "ref_1.txt", "other\n");
+        Trial again = trial(1, in, out, "echo", "1");
+        again.reference = ref;
+        assertEquals(key, cache.key(again));
+        assertTrue(cache.restore(again, key, tee, true));
+        assertFalse(again.comparison.passed);
+    }
+
+    @Test
+    void largeOutputsAreNotStored() throws IOException
+    {
+        ResultCache small = ResultCache.open(dir.resolve("cache"), dir.resolve("split_test"), "echo <key>", 4, 1 << 20);
+        File out = TestFiles.write(dir, "output_1.txt", "too long\n").toFile();
+        Trial ran = trial(1, null, out, "run");
+        String key = small.key(ran);
+        small.store(ran, key);
+        assertFalse(small.restore(trial(1, null, out, "run"), key, new RunOptions(), true));
+    }
+
+    @Test
+    void leastRecentlyUsedOutputsAreEvicted() throws IOException
+    {
+        ResultCache bounded = ResultCache.open(dir.resolve("cache"), dir.resolve("split_test"), "echo <key>", 1 << 20, 10);
+        File out1 = TestFiles.write(dir, "output_1.txt", "first!\n").toFile();
+        File out2 = TestFiles.write(dir, "output_2.txt", "second\n").toFile();
+        Trial t1 = trial(1, null, out1, "run", "1");
+        Trial t2 = trial(2, null, out2, "run", "2");
+        String k1 = bounded.key(t1);
+        String k2 = bounded.key(t2);
+        bounded.store(t1, k1);
+        //modification times are only as fine as the file system keeps them
+        dir.resolve("cache").resolve("blobs").toFile().listFiles()[0].setLastModified(System.currentTimeMillis() - 60000);
+        bounded.store(t2, k2);
+        bounded.trim();
+
+        assertFalse(bounded.restore(trial(1, null, out1, "run", "1"), k1, new RunOptions(), true));
+        assertFalse(Files.exists(dir.resolve("cache").resolve(k1 + ".properties")));
+        assertTrue(bounded.restore(trial(2, null, out2, "run", "2"), k2, new RunOptions(), true));
+    }
+
+    @Test
+    void changedInputChangesTheKey() throws IOException
+    {
+        File in = TestFiles.write(dir, "input_1.txt", "abc").toFile();
+        Trial t = trial(1, in, dir.resolve("output_1.txt").toFile(), "run");
+        String before = cache.key(t);
+        TestFiles.write(dir, "input_1.txt", "abd");
+        assertNotEquals(before, cache.key(t));
+    }
+
+    @Test
+    void storedOutputIsRestored() throws IOException
+    {
+        File in = TestFiles.write(dir, "input_1.txt", "abc").toFile();
+        File out = TestFiles.write(dir, "output_1.txt", "result\n").toFile();
+        Trial ran = trial(1, in, out, "run");
+        String key = cache.key(ran);
+        cache.store(ran, key);
+
+        TestFiles.write(dir, "output_1.txt", "stale");
+        Trial again = trial(1, in, out, "run");
+        assertTrue(cache.restore(again, key, new RunOptions(), true));
+        assertEquals("result\n", new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8));
+        assertFalse(again.valgrindError);
+    }
+
+    @Test
+    void missingEntryIsNotRestored() throws IOException
+    {
+        File out = dir.resolve("output_1.txt").toFile();
+        Trial t = trial(1, null, out, "run");
+        assertFalse(cache.restore(t, cache.key(t), new RunOptions(), true));
+    }
+}
@@ -0,0 +1,106 @@
+package com.cqwillia.tester;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultComparatorTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    void identicalFilesPassWithoutBeingRead() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\nb\nc\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\nc\n");
+        Comparison c = ResultComparator.compare(out, ref, true);
+        assertTrue(c.passed);
+        assertTrue(c.identical);
+    }
+
+    @Test
+    void identicalFilesPassLineByLineWhenNotMapped() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\nb\nc\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\nc\n");
+        Comparison c = ResultComparator.compare(out, ref, false);
+        assertTrue(c.passed);
+        assertFalse(c.identical);
+        assertEquals(3, c.outLines);
+        assertEquals(3, c.refLines);
+        assertEquals(0, c.firstDifference);
+    }
+
+    @Test
+    void firstDifferingLineIsReported() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\nX\nc\nY\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\nc\nd\n");
+        Comparison c = ResultComparator.compare(out, ref, true);
+        assertFalse(c.passed);
+        assertEquals(2, c.firstDifference);
+    }
+
+    @Test
+    void sameSizeWithDifferentBytesFallsBackToLines() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "abc\n");
+        File ref = TestFiles.file(dir, "ref", "abd\n");
+        assertFalse(ResultComparator.sameBytes(out, ref));
+        Comparison c = ResultComparator.compare(out, ref, true);
+        assertFalse(c.passed);
+        assertFalse(c.identical);
+        assertEquals(1, c.firstDifference);
+    }
+
+    @Test
+    void shortOutputFailsAfterItsLastLine() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\nb\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\nc\n");
+        Comparison c = ResultComparator.compare(out, ref, true);
+        assertFalse(c.passed);
+        assertEquals(3, c.firstDifference);
+    }
+
+    @Test
+    void blankLinesAfterTheReferencePass() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\nb\n\n\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\n");
+        assertTrue(ResultComparator.compare(out, ref, true).passed);
+    }
+
+    @Test
+    void extraOutputAfterTheReferenceFails() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\nb\n\nextra\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\n");
+        Comparison c = ResultComparator.compare(out, ref, true);
+        assertFalse(c.passed);
+        assertEquals(4, c.firstDifference);
+    }
+
+    @Test
+    void lineEndingsDoNotDiffer() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "a\r\nb\r\n");
+        File ref = TestFiles.file(dir, "ref", "a\nb\n");
+        assertTrue(ResultComparator.compare(out, ref, true).passed);
+    }
+
+    @Test
+    void emptyFilesAreIdentical() throws IOException
+    {
+        File out = TestFiles.file(dir, "out", "");
+        File ref = TestFiles.file(dir, "ref", "");
+        assertTrue(ResultComparator.sameBytes(out, ref));
+        assertTrue(ResultComparator.compare(out, ref, false).passed);
+    }
+}
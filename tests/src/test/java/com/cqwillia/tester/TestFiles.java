@@ -0,0 +1,31 @@
+package com.cqwillia.tester;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* TestFiles writes and reads the small UTF-8 files the tests work on, in a test's temporary directory. */
+final class TestFiles
+{
+    private TestFiles() {}
+
+    /* writes content to the file name under dir, creating any directories in name, and returns it */
+    static Path write(Path dir, String name, String content) throws IOException
+    {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static File file(Path dir, String name, String content) throws IOException
+    {
+        return write(dir, name, content).toFile();
+    }
+
+    static String read(Path file) throws IOException
+    {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
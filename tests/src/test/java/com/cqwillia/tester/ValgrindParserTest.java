@@ -0,0 +1,189 @@
+package com.cqwillia.tester;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValgrindParserTest
+{
+    @TempDir
+    Path dir;
+
+    private static final String[] TEXT_REPORT = {
+        "==123== Memcheck, a memory error detector",
+        "==123== ",
+        "Invalid read printed by the test itself",
+        "==123== Invalid read of size 4",
+        "==123==    at 0x4005F4: main (split_test.cpp:12)",
+        "==123==    by 0x4E3A1B: __libc_start_main (libc-start.c:344)",
+        "==123==  Address 0x5204068 is 0 bytes after a block of size 40 alloc'd",
+        "==123==    at 0x4C2E0EF: operator new[](unsigned long) (vg_replace_malloc.c:423)",
+        "==123==    by 0x4005D5: main (split_test.cpp:10)",
+        "==123== ",
+        "==123== HEAP SUMMARY:",
+        "==123==     in use at exit: 1,040 bytes in 1 blocks",
+        "==123== ",
+        "==123== 1,040 bytes in 1 blocks are definitely lost in loss record 1 of 1",
+        "==123==    at 0x4C2E0EF: operator new[](unsigned long) (vg_replace_malloc.c:423)",
+        "==123==    by 0x4005D5: main (split_test.cpp:10)",
+        "==123== ",
+        "==123== LEAK SUMMARY:",
+        "==123==    definitely lost: 1,040 bytes in 1 blocks",
+        "==123==    indirectly lost: 0 bytes in 0 blocks",
+        "==123==      possibly lost: 8 bytes in 1 blocks",
+        "==123==    still reachable: 0 bytes in 0 blocks",
+        "==123== ",
+    };
+
+    private static MemcheckReport parseText(String... lines)
+    {
+        ValgrindParser parser = new ValgrindParser();
+        for(String line : lines)
+        {
+            parser.line(line);
+        }
+        return parser.finish();
+    }
+
+    private Path writeXml(String body) throws IOException
+    {
+        String xml = "<?xml version=\"1.0\"?>\n<valgrindoutput>\n<protocolversion>4</protocolversion>\n" + body;
+        return TestFiles.write(dir, "memcheck.xml", xml);
+    }
+
+    private static final String XML_ERRORS =
+        "<error>\n"
+        + "  <unique>0x0</unique>\n"
+        + "  <kind>InvalidWrite</kind>\n"
+        + "  <what>Invalid write of size 4</what>\n"
+        + "  <stack>\n"
+        + "    <frame><ip>0x1</ip><obj>/work/split_test</obj><fn>main</fn><dir>/work</dir>"
+        + "<file>split_test.cpp</file><line>7</line></frame>\n"
+        + "    <frame><ip>0x2</ip><obj>/lib/libc.so.6</obj><fn>__libc_start_main</fn></frame>\n"
+        + "  </stack>\n"
+        + "  <auxwhat>Address 0x10 is 0 bytes after a block of size 16 alloc'd</auxwhat>\n"
+        + "  <stack><frame><ip>0x3</ip><fn>malloc</fn><file>vg_replace_malloc.c</file><line>299</line></frame></stack>\n"
+        + "</error>\n"
+        + "<error>\n"
+        + "  <unique>0x1</unique>\n"
+        + "  <kind>Leak_DefinitelyLost</kind>\n"
+        + "  <xwhat><text>16 bytes in 1 blocks are definitely lost in loss record 1 of 1</text>"
+        + "<leakedbytes>16</leakedbytes><leakedblocks>1</leakedblocks></xwhat>\n"
+        + "  <stack><frame><ip>0x4</ip><fn>operator new(unsigned long)</fn></frame></stack>\n"
+        + "</error>\n";
+
+    @Test
+    void textReportIsParsed()
+    {
+        MemcheckReport report = parseText(TEXT_REPORT);
+        assertEquals(Integer.valueOf(1), report.kinds.get("InvalidRead"));
+        assertEquals(Integer.valueOf(1), report.kinds.get("Leak_DefinitelyLost"));
+        assertEquals(2, report.errorCount());
+        assertEquals(1040, report.definitelyLost);
+        assertEquals(0, report.indirectlyLost);
+        assertEquals(8, report.possiblyLost);
+        assertTrue(report.hasErrors());
+
+        MemcheckReport.Error first = report.errors.get(0);
+        assertEquals("InvalidRead", first.kind);
+        assertEquals("Invalid read of size 4", first.what);
+        //the stack of the block the address lies after is not part of the error's own stack
+        assertEquals(Arrays.asList("main (split_test.cpp:12)", "__libc_start_main (libc-start.c:344)"), first.stack);
+    }
+
+    @Test
+    void linesWithoutTheValgrindPrefixAreIgnored()
+    {
+        MemcheckReport report = parseText("Invalid read of size 4", "   at 0x1: main (a.cpp:1)", "");
+        assertEquals(0, report.errorCount());
+        assertFalse(report.hasErrors());
+    }
+
+    @Test
+    void reachableMemoryIsNotAnError()
+    {
+        MemcheckReport report = parseText(
+            "==9== 24 bytes in 1 blocks are still reachable in loss record 1 of 1",
+            "==9==    at 0x1: malloc (vg_replace_malloc.c:299)",
+            "==9== ",
+            "==9==      possibly lost: 0 bytes in 0 blocks");
+        assertEquals(Integer.valueOf(1), report.kinds.get("Leak_StillReachable"));
+        assertFalse(report.hasErrors());
+    }
+
+    @Test
+    void onlyTheFirstErrorsKeepTheirStacks()
+    {
+        String[] lines = new String[60];
+        for(int i = 0; i < 20; i++)
+        {
+            lines[3 * i] = "==7== Conditional jump or move depends on uninitialised value(s)";
+            lines[3 * i + 1] = "==7==    at 0x1: main (a.cpp:" + i + ")";
+            lines[3 * i + 2] = "==7== ";
+        }
+        MemcheckReport report = parseText(lines);
+        assertEquals(Integer.valueOf(20), report.kinds.get("UninitCondition"));
+        assertEquals(MemcheckReport.MAX_DETAILED, report.errors.size());
+    }
+
+    @Test
+    void xmlReportIsParsed() throws IOException
+    {
+        MemcheckReport report = ValgrindParser.parseXml(writeXml(XML_ERRORS + "</valgrindoutput>\n"));
+        assertEquals(Integer.valueOf(1), report.kinds.get("InvalidWrite"));
+        assertEquals(Integer.valueOf(1), report.kinds.get("Leak_DefinitelyLost"));
+        assertEquals(16, report.definitelyLost);
+        assertTrue(report.hasErrors());
+
+        MemcheckReport.Error write = report.errors.get(0);
+        assertEquals("Invalid write of size 4", write.what);
+        assertEquals(Arrays.asList("main (split_test.cpp:7)", "__libc_start_main (in /lib/libc.so.6)"), write.stack);
+
+        MemcheckReport.Error leak = report.errors.get(1);
+        assertEquals("16 bytes in 1 blocks are definitely lost in loss record 1 of 1", leak.what);
+        assertEquals(16, leak.bytes);
+        assertEquals(Arrays.asList("operator new(unsigned long) (unknown)"), leak.stack);
+    }
+
+    @Test
+    void truncatedXmlKeepsTheErrorsReadBeforeIt() throws IOException
+    {
+        String cut = XML_ERRORS.substring(0, XML_ERRORS.indexOf("<leakedbytes>"));
+        MemcheckReport report = ValgrindParser.parseXml(writeXml(cut));
+        assertEquals(Integer.valueOf(1), report.kinds.get("InvalidWrite"));
+        assertNull(report.kinds.get("Leak_DefinitelyLost"));
+        assertEquals(1, report.errorCount());
+    }
+
+    @Test
+    void storedCountsAreLoaded()
+    {
+        MemcheckReport report = parseText(TEXT_REPORT);
+        Properties p = new Properties();
+        report.store(p);
+        MemcheckReport loaded = MemcheckReport.load(p);
+        assertEquals(report.kinds, loaded.kinds);
+        assertEquals(report.definitelyLost, loaded.definitelyLost);
+        assertEquals(report.possiblyLost, loaded.possiblyLost);
+        assertTrue(loaded.errors.isEmpty());
+        assertNull(MemcheckReport.load(new Properties()));
+    }
+
+    @Test
+    void describeSummarisesTheFirstError()
+    {
+        MemcheckReport report = parseText(TEXT_REPORT);
+        assertEquals(Arrays.asList(
+                "  Memcheck: 2 errors (InvalidRead x1, Leak_DefinitelyLost x1); 1040 bytes definitely lost, "
+                        + "0 indirectly lost, 8 possibly lost.",
+                "  First error: Invalid read of size 4",
+                "    at main (split_test.cpp:12)",
+                "    by __libc_start_main (libc-start.c:344)"), report.describe());
+    }
+}